@@ -567,62 +567,31 @@ public class HttpClient extends JFrame {
                     URL url = new URL(urlStr);
                     int port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
                     String host = url.getHost();
-                    try (Socket socket = new Socket()) {
-                        socket.connect(new InetSocketAddress(host, port), 4000);
-                        socket.setKeepAlive(keepAlive);
-                        socket.setSoTimeout(10000);
-                        OutputStream out = socket.getOutputStream();
-                        InputStream in = socket.getInputStream();
-                        BufferedOutputStream bout = new BufferedOutputStream(out);
-
+                    try (HttpWire.Connection conn = new HttpWire.Connection(host, port, 4000, 10000, keepAlive)) {
                         String path = url.getPath();
                         if (path == null || path.isEmpty()) path = "/";
                         if (url.getQuery() != null && !url.getQuery().isEmpty())
                             path += "?" + url.getQuery();
 
-                        StringBuilder req = new StringBuilder();
-                        req.append(curMethod).append(" ").append(path).append(" HTTP/1.1\r\n");
-                        req.append("Host: ").append(host).append("\r\n");
-                        req.append("User-Agent: SimpleGuiClient/1.0\r\n");
-                        req.append("Accept: */*\r\n");
-                        req.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
-
+                        Map<String, String> extra = new LinkedHashMap<>();
                         if (useLastEtagCb.isSelected() && lastEtag != null) {
-                            req.append("If-None-Match: ").append(lastEtag).append("\r\n");
+                            extra.put("If-None-Match", lastEtag);
                         }
 
                         byte[] bodyBytes = new byte[0];
                         if ("POST".equalsIgnoreCase(curMethod)) {
                             bodyBytes = body.getBytes(StandardCharsets.UTF_8);
-                            req.append("Content-Type: application/x-www-form-urlencoded; charset=utf-8\r\n");
-                            req.append("Content-Length: ").append(bodyBytes.length).append("\r\n");
                         }
-                        req.append("\r\n");
-                        bout.write(req.toString().getBytes(StandardCharsets.UTF_8));
-                        if (bodyBytes.length > 0) bout.write(bodyBytes);
-                        bout.flush();
-
-                        BufferedInputStream bin = new BufferedInputStream(in);
-                        String statusLine = readLine(bin);
-                        if (statusLine == null) {
+                        conn.write(HttpWire.encodeRequest(curMethod, path, host, keepAlive, extra, bodyBytes));
+                        conn.flush();
+
+                        HttpWire.Response response = conn.read("HEAD".equalsIgnoreCase(curMethod));
+                        if (response == null) {
                             publishError("没有收到响应");
                             return null;
                         }
-
-                        StringBuilder headerBuf = new StringBuilder();
-                        headerBuf.append(statusLine).append("\n");
-                        Map<String, String> headers = new LinkedHashMap<>();
-                        String line;
-                        while ((line = readLine(bin)) != null && !line.isEmpty()) {
-                            headerBuf.append(line).append("\n");
-                            int idx = line.indexOf(':');
-                            if (idx > 0) {
-                                String name = line.substring(0, idx).trim().toLowerCase();
-                                String val = line.substring(idx + 1).trim();
-                                headers.put(name, val);
-                            }
-                        }
-                        final String headerStr = headerBuf.toString();
+                        Map<String, String> headers = response.headers;
+                        final String headerStr = response.headerText;
                         if (displayInRaw) appendHeaders(headerStr);
                         else SwingUtilities.invokeLater(() -> authResultArea.append(headerStr + "\n"));
 
@@ -631,7 +600,7 @@ public class HttpClient extends JFrame {
                             SwingUtilities.invokeLater(() -> statusLabel.setText("Captured ETag: " + lastEtag));
                         }
 
-                        int statusCode = parseStatus(statusLine);
+                        int statusCode = response.status;
 
                         if ((statusCode == 301 || statusCode == 302) && followRedirects) {
                             String loc = headers.get("location");
@@ -657,20 +626,7 @@ public class HttpClient extends JFrame {
                             break;
                         }
 
-                        byte[] respBody;
-                        String cl = headers.get("content-length");
-                        if (cl != null) {
-                            int len = Integer.parseInt(cl.trim());
-                            respBody = readFixedBytes(bin, len);
-                        } else {
-                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                            byte[] buf = new byte[4096];
-                            int r;
-                            while ((r = bin.read(buf)) != -1) {
-                                baos.write(buf, 0, r);
-                            }
-                            respBody = baos.toByteArray();
-                        }
+                        byte[] respBody = response.body;
 
                         lastResponseBytes = respBody;
                         lastContentType = headers.getOrDefault("content-type", "application/octet-stream");
@@ -755,14 +711,6 @@ public class HttpClient extends JFrame {
             }
         }
 
-        private int parseStatus(String statusLine) {
-            try {
-                String[] parts = statusLine.split(" ");
-                if (parts.length >= 2) return Integer.parseInt(parts[1]);
-            } catch (Exception ignored) {}
-            return -1;
-        }
-
         private void publishError(String s) {
             SwingUtilities.invokeLater(() -> {
                 setStatus(s);
@@ -799,39 +747,6 @@ public class HttpClient extends JFrame {
         return clean.length() > 120 ? clean.substring(0, 120) + "..." : clean;
     }
 
-    // 工具方法：按 CRLF 读一行
-    private String readLine(InputStream in) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int prev = -1, cur;
-        while ((cur = in.read()) != -1) {
-            baos.write(cur);
-            if (prev == '\r' && cur == '\n') {
-                byte[] arr = baos.toByteArray();
-                if (arr.length == 2 && arr[0] == '\r' && arr[1] == '\n') {
-                    return "";
-                }
-                return new String(arr, 0, arr.length - 2, StandardCharsets.ISO_8859_1);
-            }
-            prev = cur;
-        }
-        if (baos.size() == 0) return null;
-        return new String(baos.toByteArray(), StandardCharsets.ISO_8859_1);
-    }
-
-    private byte[] readFixedBytes(InputStream in, int len) throws IOException {
-        byte[] buf = new byte[len];
-        int off = 0;
-        while (off < len) {
-            int r = in.read(buf, off, len - off);
-            if (r == -1) break;
-            off += r;
-        }
-        if (off == len) return buf;
-        byte[] r2 = new byte[off];
-        System.arraycopy(buf, 0, r2, 0, off);
-        return r2;
-    }
-
     private boolean isTextContent(String ct) {
         if (ct == null) return false;
         String l = ct.toLowerCase();
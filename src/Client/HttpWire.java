@@ -0,0 +1,253 @@
+package Client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 报文的收发（不依赖 Swing）：拼请求报文、按 Content-Length / chunked / 读到连接关闭 三种方式读响应。
+ * GUI 客户端和命令行压测工具共用。
+ */
+public class HttpWire {
+    public static final String USER_AGENT = "SimpleGuiClient/1.0";
+
+    private HttpWire() {
+    }
+
+    /** 一个完整的响应 */
+    public static final class Response {
+        public final String statusLine;
+        public final int status;
+        public final Map<String, String> headers;    // 头名小写
+        public final String headerText;               // 状态行 + 原始头部，每行以 \n 结尾，用于显示
+        public final byte[] body;
+        public final long wireBytes;                  // 头部 + 正文在线路上的字节数（近似，不含分块头）
+
+        Response(String statusLine, Map<String, String> headers, String headerText, byte[] body) {
+            this.statusLine = statusLine;
+            this.status = parseStatus(statusLine);
+            this.headers = headers;
+            this.headerText = headerText;
+            this.body = body;
+            int lines = 0;
+            for (int i = 0; i < headerText.length(); i++) {
+                if (headerText.charAt(i) == '\n') lines++;
+            }
+            this.wireBytes = headerText.length() + lines + 2 + body.length;  // 每行的 \r 和结尾空行
+        }
+
+        public String header(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        /** 服务器是否要求在本响应之后关闭连接 */
+        public boolean isConnectionClose() {
+            String c = headers.get("connection");
+            return c != null && c.equalsIgnoreCase("close");
+        }
+    }
+
+    /**
+     * 拼请求报文
+     * @param extraHeaders 额外的请求头，可为 null
+     * @param body 请求体，POST 时以表单类型发送；null 或空表示没有请求体
+     */
+    public static byte[] encodeRequest(String method, String target, String host, boolean keepAlive,
+                                       Map<String, String> extraHeaders, byte[] body) {
+        StringBuilder req = new StringBuilder();
+        req.append(method).append(" ").append(target).append(" HTTP/1.1\r\n");
+        req.append("Host: ").append(host).append("\r\n");
+        req.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        req.append("Accept: */*\r\n");
+        req.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        if (extraHeaders != null) {
+            for (Map.Entry<String, String> h : extraHeaders.entrySet()) {
+                req.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+            }
+        }
+        boolean hasBody = body != null && body.length > 0;
+        if (hasBody || "POST".equalsIgnoreCase(method)) {
+            int len = hasBody ? body.length : 0;
+            req.append("Content-Type: application/x-www-form-urlencoded; charset=utf-8\r\n");
+            req.append("Content-Length: ").append(len).append("\r\n");
+        }
+        req.append("\r\n");
+        byte[] head = req.toString().getBytes(StandardCharsets.UTF_8);
+        if (!hasBody) {
+            return head;
+        }
+        byte[] all = new byte[head.length + body.length];
+        System.arraycopy(head, 0, all, 0, head.length);
+        System.arraycopy(body, 0, all, head.length, body.length);
+        return all;
+    }
+
+    /**
+     * 读一个完整响应，跳过 1xx 中间响应
+     * @param headRequest 对应的请求是否为 HEAD（响应没有正文）
+     * @return 连接在响应开始前被关闭时返回 null
+     */
+    public static Response readResponse(InputStream in, boolean headRequest) throws IOException {
+        while (true) {
+            String statusLine = readLine(in);
+            if (statusLine == null) {
+                return null;
+            }
+            StringBuilder headerBuf = new StringBuilder();
+            headerBuf.append(statusLine).append("\n");
+            Map<String, String> headers = new LinkedHashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                headerBuf.append(line).append("\n");
+                int idx = line.indexOf(':');
+                if (idx > 0) {
+                    String name = line.substring(0, idx).trim().toLowerCase();
+                    String val = line.substring(idx + 1).trim();
+                    headers.put(name, val);
+                }
+            }
+            int status = parseStatus(statusLine);
+            if (status >= 100 && status < 200) {
+                continue;   // 100 Continue 等中间响应，真正的响应在后面
+            }
+
+            byte[] body;
+            String cl = headers.get("content-length");
+            String te = headers.get("transfer-encoding");
+            if (headRequest || status == 204 || status == 304) {
+                body = new byte[0];
+            } else if (te != null && te.toLowerCase().contains("chunked")) {
+                body = readChunked(in);
+            } else if (cl != null) {
+                body = readFixedBytes(in, Integer.parseInt(cl.trim()));
+            } else {
+                body = readToEnd(in);
+            }
+            return new Response(statusLine, headers, headerBuf.toString(), body);
+        }
+    }
+
+    public static int parseStatus(String statusLine) {
+        try {
+            String[] parts = statusLine.split(" ");
+            if (parts.length >= 2) return Integer.parseInt(parts[1]);
+        } catch (Exception ignored) {}
+        return -1;
+    }
+
+    // 按 CRLF 读一行
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int prev = -1, cur;
+        while ((cur = in.read()) != -1) {
+            baos.write(cur);
+            if (prev == '\r' && cur == '\n') {
+                byte[] arr = baos.toByteArray();
+                if (arr.length == 2 && arr[0] == '\r' && arr[1] == '\n') {
+                    return "";
+                }
+                return new String(arr, 0, arr.length - 2, StandardCharsets.ISO_8859_1);
+            }
+            prev = cur;
+        }
+        if (baos.size() == 0) return null;
+        return new String(baos.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    public static byte[] readFixedBytes(InputStream in, int len) throws IOException {
+        byte[] buf = new byte[len];
+        int off = 0;
+        while (off < len) {
+            int r = in.read(buf, off, len - off);
+            if (r == -1) break;
+            off += r;
+        }
+        if (off == len) return buf;
+        byte[] r2 = new byte[off];
+        System.arraycopy(buf, 0, r2, 0, off);
+        return r2;
+    }
+
+    // Transfer-Encoding: chunked：十六进制长度行 + 数据 + CRLF，长度为 0 的分块结束，之后是可选的 trailer
+    private static byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine(in);
+            if (sizeLine == null) break;
+            int semi = sizeLine.indexOf(';');
+            int size = Integer.parseInt((semi >= 0 ? sizeLine.substring(0, semi) : sizeLine).trim(), 16);
+            if (size == 0) {
+                String trailer;
+                while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                    // 忽略 trailer
+                }
+                break;
+            }
+            baos.write(readFixedBytes(in, size));
+            readLine(in);   // 分块数据后的 CRLF
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] readToEnd(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int r;
+        while ((r = in.read(buf)) != -1) {
+            baos.write(buf, 0, r);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * 一条到服务器的连接，请求可以连续写出（管线化），响应按顺序读回
+     */
+    public static final class Connection implements Closeable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+
+        public Connection(String host, int port, int connectTimeoutMillis, int readTimeoutMillis, boolean keepAlive)
+                throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                socket.setKeepAlive(keepAlive);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(readTimeoutMillis);
+                out = new BufferedOutputStream(socket.getOutputStream());
+                in = new BufferedInputStream(socket.getInputStream());
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /** 写入缓冲区，flush() 时才真正发出 */
+        public void write(byte[] request) throws IOException {
+            out.write(request);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public Response read(boolean headRequest) throws IOException {
+            return readResponse(in, headRequest);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
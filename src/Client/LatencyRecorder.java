@@ -0,0 +1,129 @@
+package Client;
+
+/**
+ * 延迟直方图（微秒）- 对数分段、每段 128 个线性子桶，相对误差不超过 1%，内存固定，记录只是一次数组自增。
+ * 不是线程安全的：每个压测线程各用一个，结束后用 add() 合并。
+ *
+ * 除了普通记录外支持协调遗漏（coordinated omission）修正：客户端在等一个慢响应时发不出后续请求，
+ * 这些本该发出的请求的等待时间不会出现在样本里。按期望的请求间隔补上这些缺失的样本后，
+ * 高分位数才反映用户实际感受到的延迟。
+ */
+public class LatencyRecorder {
+    private static final int LINEAR = 256;          // 小于 256µs 的值每微秒一个桶
+    private static final int SUB_BUCKETS = 128;
+    private static final int MAX_SHIFT = 32;        // 覆盖到 2^39 µs，远超任何请求超时
+
+    private final long[] counts = new long[LINEAR + MAX_SHIFT * SUB_BUCKETS];
+    private long total = 0;
+    private long max = 0;
+    private double sum = 0;
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts[index(micros)]++;
+        total++;
+        sum += micros;
+        if (micros > max) {
+            max = micros;
+        }
+    }
+
+    /**
+     * 记录一个样本并修正协调遗漏：样本超过期望间隔时，补上间隔递减的若干个样本
+     * （相当于 HdrHistogram 的 recordValueWithExpectedInterval）
+     * @param expectedIntervalMicros 正常情况下两次请求之间的间隔，0 表示不修正
+     */
+    public void recordCorrected(long micros, long expectedIntervalMicros) {
+        record(micros);
+        if (expectedIntervalMicros <= 0) {
+            return;
+        }
+        for (long missing = micros - expectedIntervalMicros; missing >= expectedIntervalMicros;
+             missing -= expectedIntervalMicros) {
+            record(missing);
+        }
+    }
+
+    /**
+     * 按期望间隔对已记录的样本做事后修正，返回新的直方图（本对象不变）
+     */
+    public LatencyRecorder corrected(long expectedIntervalMicros) {
+        LatencyRecorder r = new LatencyRecorder();
+        for (int i = 0; i < counts.length; i++) {
+            long n = counts[i];
+            if (n == 0) {
+                continue;
+            }
+            long value = valueAt(i);
+            for (long k = 0; k < n; k++) {
+                r.recordCorrected(value, expectedIntervalMicros);
+            }
+        }
+        return r;
+    }
+
+    public void add(LatencyRecorder other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * @param p 百分位，例如 99.9
+     */
+    public long percentile(double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p / 100.0 * total);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(valueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(long v) {
+        if (v < LINEAR) {
+            return (int) v;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - 7;    // 使 v >> shift 落在 [128, 255]
+        if (shift > MAX_SHIFT) {
+            return LINEAR + MAX_SHIFT * SUB_BUCKETS - 1;
+        }
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((v >> shift) - SUB_BUCKETS);
+    }
+
+    /** 桶的代表值（区间中点） */
+    private static long valueAt(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long mantissa = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return (mantissa << shift) + (1L << shift) / 2;
+    }
+}
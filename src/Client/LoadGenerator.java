@@ -0,0 +1,309 @@
+package Client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 命令行压测工具 - 使用 HttpWire 的 HTTP/1.1 收发逻辑，N 个连接并发地向服务器发送按权重混合的请求。
+ *
+ * 两种模式：
+ * 闭环（默认）：每个连接收到响应后立即发送下一个请求，测的是服务器能达到的最大吞吐量；
+ * 固定速率（-rate）：按计划的时间点发送请求，延迟从“计划发送时间”算起。服务器变慢时，
+ *   来不及发出的请求的排队时间也计入延迟，从根本上避免协调遗漏。
+ * 闭环模式没有计划时间，报告时另外按“连接数 / 吞吐量”作为期望间隔对直方图做事后修正。
+ *
+ * 用法：java -cp out Client.LoadGenerator [-url http://localhost:8018] [-c 16] [-d 30] [-warmup 3]
+ *          [-rate 总请求数每秒] [-pipeline 1] [-keepalive true] [-mix "/:60,POST /login:20,/index.html:20"]
+ */
+public class LoadGenerator {
+    private static final String USER = "loadtest";
+    private static final String PASSWORD = "loadtest";
+    private static final String FORM = "username=" + USER + "&password=" + PASSWORD;
+
+    /** 混合中的一种请求，报文预先拼好 */
+    private static final class Route {
+        final String method;
+        final String path;
+        final int weight;
+        final byte[] request;
+
+        Route(String method, String path, int weight, byte[] request) {
+            this.method = method;
+            this.path = path;
+            this.weight = weight;
+            this.request = request;
+        }
+    }
+
+    /** 一个连接线程的统计，线程结束后合并 */
+    private static final class Stats {
+        final LatencyRecorder latency = new LatencyRecorder();   // 从计划发送时间算起
+        final LatencyRecorder service = new LatencyRecorder();   // 从实际发出时间算起
+        final TreeMap<Integer, Long> statuses = new TreeMap<>();
+        long bytes = 0;
+        long errors = 0;
+        long reconnects = 0;
+    }
+
+    private String host = "localhost";
+    private int port = 8018;
+    private int connections = 16;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 3;
+    private double rate = 0;            // 总请求速率，0 表示闭环
+    private int pipeline = 1;
+    private boolean keepAlive = true;
+    private List<Route> routes = new ArrayList<>();
+    private int totalWeight;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator gen = new LoadGenerator();
+        String mix = "/:60,POST /login:20,/index.html:20";
+        if (args.length % 2 != 0) {
+            System.out.println("Usage: LoadGenerator [-url u] [-c n] [-d seconds] [-warmup seconds] [-rate r] "
+                    + "[-pipeline n] [-keepalive true|false] [-mix \"/:60,POST /login:20,/index.html:20\"]");
+            return;
+        }
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "-url": {
+                    URL u = new URL(v);
+                    gen.host = u.getHost();
+                    gen.port = u.getPort() == -1 ? u.getDefaultPort() : u.getPort();
+                    break;
+                }
+                case "-c": gen.connections = Integer.parseInt(v); break;
+                case "-d": gen.durationSeconds = Integer.parseInt(v); break;
+                case "-warmup": gen.warmupSeconds = Integer.parseInt(v); break;
+                case "-rate": gen.rate = Double.parseDouble(v); break;
+                case "-pipeline": gen.pipeline = Math.max(1, Integer.parseInt(v)); break;
+                case "-keepalive": gen.keepAlive = Boolean.parseBoolean(v); break;
+                case "-mix": mix = v; break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        if (!gen.keepAlive) {
+            gen.pipeline = 1;   // 短连接每个请求新建连接，无法管线化
+        }
+        gen.parseMix(mix);
+        gen.prepare();
+        gen.run();
+    }
+
+    /** 解析 "[METHOD ]path:weight,..."，方法省略时为 GET */
+    private void parseMix(String mix) {
+        for (String item : mix.split(",")) {
+            String s = item.trim();
+            if (s.isEmpty()) continue;
+            int colon = s.lastIndexOf(':');
+            int weight = colon > 0 ? Integer.parseInt(s.substring(colon + 1).trim()) : 1;
+            String spec = colon > 0 ? s.substring(0, colon).trim() : s;
+            String method = "GET";
+            String path = spec;
+            int space = spec.indexOf(' ');
+            if (space > 0) {
+                method = spec.substring(0, space).toUpperCase(Locale.ROOT);
+                path = spec.substring(space + 1).trim();
+            }
+            byte[] body = "POST".equals(method) ? FORM.getBytes(StandardCharsets.UTF_8) : null;
+            routes.add(new Route(method, path, weight,
+                    HttpWire.encodeRequest(method, path, host, keepAlive, null, body)));
+            totalWeight += weight;
+        }
+        if (routes.isEmpty() || totalWeight <= 0) {
+            throw new IllegalArgumentException("Empty request mix: " + mix);
+        }
+    }
+
+    /** 压测前注册登录用的账号（已存在也没关系） */
+    private void prepare() throws IOException {
+        try (HttpWire.Connection conn = new HttpWire.Connection(host, port, 4000, 10000, false)) {
+            conn.write(HttpWire.encodeRequest("POST", "/register", host, false, null,
+                    FORM.getBytes(StandardCharsets.UTF_8)));
+            conn.flush();
+            conn.read(false);
+        }
+    }
+
+    private Route pick() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Route route : routes) {
+            r -= route.weight;
+            if (r < 0) {
+                return route;
+            }
+        }
+        return routes.get(routes.size() - 1);
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf(Locale.ROOT, "Target %s:%d, %d connections, %ds (+%ds warmup), %s, pipeline %d, keep-alive %s%n",
+                host, port, connections, durationSeconds, warmupSeconds,
+                rate > 0 ? String.format(Locale.ROOT, "fixed rate %.0f req/s", rate) : "closed loop",
+                pipeline, keepAlive);
+
+        long startNanos = System.nanoTime() + 100_000_000L;    // 给所有线程留出启动时间，同时开始
+        long measureFrom = startNanos + warmupSeconds * 1_000_000_000L;
+        long endNanos = measureFrom + durationSeconds * 1_000_000_000L;
+        // 固定速率时每个连接的请求间隔；各连接错开起始时间，避免请求集中在同一时刻
+        long intervalNanos = rate > 0 ? (long) (1e9 * connections / rate) : 0;
+
+        Stats[] stats = new Stats[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            Stats s = new Stats();
+            stats[i] = s;
+            long offset = intervalNanos > 0 ? intervalNanos * i / connections : 0;
+            threads[i] = new Thread(() -> drive(s, startNanos + offset, measureFrom, endNanos, intervalNanos),
+                    "load-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Stats total = new Stats();
+        for (Stats s : stats) {
+            total.latency.add(s.latency);
+            total.service.add(s.service);
+            total.bytes += s.bytes;
+            total.errors += s.errors;
+            total.reconnects += s.reconnects;
+            s.statuses.forEach((k, v) -> total.statuses.merge(k, v, Long::sum));
+        }
+        report(total);
+    }
+
+    /**
+     * 一个连接的发送/接收循环：按计划时间（闭环时立即）发出请求，最多 pipeline 个未完成，按顺序读回响应
+     */
+    private void drive(Stats stats, long start, long measureFrom, long end, long intervalNanos) {
+        ArrayDeque<long[]> outstanding = new ArrayDeque<>();    // {计划时间, 实际发出时间}
+        ArrayDeque<Route> sentRoutes = new ArrayDeque<>();
+        HttpWire.Connection conn = null;
+        long nextIntended = start;
+        LockSupport.parkNanos(start - System.nanoTime());
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= end && outstanding.isEmpty()) {
+                    break;
+                }
+                try {
+                    if (conn == null) {
+                        conn = new HttpWire.Connection(host, port, 4000, 10000, keepAlive);
+                    }
+                    // 发出所有已到计划时间的请求（闭环时只要未完成的请求数没到上限就发）
+                    boolean sent = false;
+                    while (outstanding.size() < pipeline && now < end && (intervalNanos == 0 || nextIntended <= now)) {
+                        Route route = pick();
+                        conn.write(route.request);
+                        long intended = intervalNanos == 0 ? now : nextIntended;
+                        outstanding.add(new long[]{intended, now});
+                        sentRoutes.add(route);
+                        nextIntended += intervalNanos;
+                        sent = true;
+                    }
+                    if (sent) {
+                        conn.flush();
+                    }
+                    if (outstanding.isEmpty()) {
+                        LockSupport.parkNanos(Math.min(nextIntended, end) - now);
+                        continue;
+                    }
+
+                    Route route = sentRoutes.poll();
+                    HttpWire.Response response = conn.read("HEAD".equals(route.method));
+                    long done = System.nanoTime();
+                    long[] times = outstanding.poll();
+                    if (response == null) {
+                        throw new IOException("Connection closed by server");
+                    }
+                    if (times[0] >= measureFrom && times[0] < end) {
+                        stats.latency.record((done - times[0]) / 1000);
+                        stats.service.record((done - times[1]) / 1000);
+                        stats.statuses.merge(response.status, 1L, Long::sum);
+                        stats.bytes += response.wireBytes;
+                    }
+                    if (!keepAlive || response.isConnectionClose()) {
+                        // 服务器关闭了连接：已管线化发出的请求作废，重新连接
+                        stats.errors += outstanding.size();
+                        outstanding.clear();
+                        sentRoutes.clear();
+                        conn.close();
+                        conn = null;
+                    }
+                } catch (IOException e) {
+                    if (System.nanoTime() < end) {
+                        stats.errors += Math.max(1, outstanding.size());
+                        stats.reconnects++;
+                    }
+                    outstanding.clear();
+                    sentRoutes.clear();
+                    closeQuietly(conn);
+                    conn = null;
+                }
+            }
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+
+    private static void closeQuietly(HttpWire.Connection conn) {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (IOException ignore) {
+                // 关闭失败无需处理
+            }
+        }
+    }
+
+    private void report(Stats total) {
+        long count = total.latency.getCount();
+        double seconds = durationSeconds;
+        double throughput = count / seconds;
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Requests:   %d in %ds, %.1f req/s, %.2f MB/s%n",
+                count, durationSeconds, throughput, total.bytes / 1048576.0 / seconds);
+        System.out.println("Statuses:   " + total.statuses + ", errors " + total.errors + ", reconnects " + total.reconnects);
+        if (count == 0) {
+            return;
+        }
+        if (rate > 0) {
+            System.out.printf(Locale.ROOT, "Achieved %.1f of %.1f req/s scheduled%n", throughput, rate);
+            printPercentiles("Latency (from scheduled send, corrected)", total.latency);
+            printPercentiles("Service time (from actual send)", total.service);
+        } else {
+            // 闭环：每个连接期望每隔 连接数/吞吐量 发出一个请求
+            long expectedMicros = (long) (1e6 * connections / throughput);
+            printPercentiles("Latency (uncorrected)", total.latency);
+            printPercentiles("Latency (corrected, expected interval " + expectedMicros + "us)",
+                    total.latency.corrected(expectedMicros));
+        }
+    }
+
+    private static void printPercentiles(String title, LatencyRecorder r) {
+        System.out.println();
+        System.out.println(title + ":");
+        System.out.printf(Locale.ROOT, "  mean %s  p50 %s  p90 %s  p99 %s  p99.9 %s  p99.99 %s  max %s%n",
+                ms(r.getMean()), ms(r.percentile(50)), ms(r.percentile(90)), ms(r.percentile(99)),
+                ms(r.percentile(99.9)), ms(r.percentile(99.99)), ms(r.getMax()));
+    }
+
+    private static String ms(double micros) {
+        return String.format(Locale.ROOT, "%.2fms", micros / 1000.0);
+    }
+}
@@ -1,14 +1,33 @@
 package com;
 
 import com.server.HttpServer;
+import com.server.NioHttpServer;
+
+import java.io.IOException;
 
 //TIP 要<b>运行</b>代码，请按 <shortcut actionId="Run"/> 或
 // 点击装订区域中的 <icon src="AllIcons.Actions.Execute"/> 图标。
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         //TIP 当文本光标位于高亮显示的文本处时按 <shortcut actionId="ShowIntentionActions"/>
         // 查看 IntelliJ IDEA 建议如何修正。
-        HttpServer server = new HttpServer(8018, 10);
-        server.startServer();
+        // 第一个参数选择服务器模式：bio（默认，阻塞 + 线程池）、vt（阻塞 + 虚拟线程）、
+        // nio（Selector 事件循环）或 mr（多 Reactor，每个核心一个接收器 + 事件循环）
+        String mode = args.length > 0 ? args[0] : "bio";
+        if ("nio".equalsIgnoreCase(mode)) {
+            NioHttpServer server = new NioHttpServer(8018);
+            server.startServer();
+        } else if ("mr".equalsIgnoreCase(mode)) {
+            NioHttpServer server = new NioHttpServer(8018, Runtime.getRuntime().availableProcessors(),
+                    NioHttpServer.AcceptMode.PER_LOOP, NioHttpServer.Balance.LEAST_LOADED)
+                    .statsInterval(10);
+            server.startServer();
+        } else if ("vt".equalsIgnoreCase(mode)) {
+            HttpServer server = new HttpServer(8018, 10, HttpServer.ExecutionMode.VIRTUAL_THREADS);
+            server.startServer();
+        } else {
+            HttpServer server = new HttpServer(8018, 10);
+            server.startServer();
+        }
     }
-}
\ No newline at end of file
+}
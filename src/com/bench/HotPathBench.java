@@ -0,0 +1,141 @@
+package com.bench;
+
+import com.controller.UserController;
+import com.http.Compression;
+import com.http.HttpRequestParser;
+import com.http.HttpResponse;
+import com.http.Router;
+import com.model.PasswordHasher;
+import com.model.UserService;
+import com.server.StaticFileCache;
+import com.server.StaticFileHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 请求/响应热路径的基准：请求解析、响应编码、路由分发、表单解析、登录校验和静态文件处理。
+ * 需要在项目根目录运行（静态文件来自 resources/）。
+ *
+ * 用法：java -cp out com.bench.HotPathBench [-f 正则] [-wi 预热轮数] [-i 测量轮数] [-t 每轮毫秒数]
+ *                                           [-baseline 基线文件] [-save 基线文件] [-tolerance 0.1]
+ * 建议加上 -Xms1g -Xmx1g，避免堆扩容影响分配和 GC 统计。
+ */
+public class HotPathBench {
+    private static final String USER = "bench";
+    private static final String PASSWORD = "secret";
+    private static final String FORM = "username=" + USER + "&password=" + PASSWORD;
+
+    private static final byte[] GET_HOME = request("GET / HTTP/1.1\r\n"
+            + "Host: localhost:8018\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n"
+            + "Connection: keep-alive\r\n\r\n");
+    private static final byte[] POST_LOGIN = request("POST /login HTTP/1.1\r\n"
+            + "Host: localhost:8018\r\n"
+            + "Content-Type: application/x-www-form-urlencoded\r\n"
+            + "Content-Length: " + FORM.length() + "\r\n"
+            + "Connection: keep-alive\r\n\r\n");
+    private static final byte[] GET_STATIC = request("GET /index.html HTTP/1.1\r\n"
+            + "Host: localhost:8018\r\n"
+            + "Accept: text/html\r\n"
+            + "Connection: keep-alive\r\n\r\n");
+
+    public static void main(String[] args) throws Exception {
+        Microbench bench = new Microbench();
+        String baseline = null;
+        String save = null;
+        double tolerance = 0.1;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            String v = i + 1 < args.length ? args[i + 1] : null;
+            if (v == null) {
+                usage();
+                return;
+            }
+            switch (a) {
+                case "-f": bench.filter(v); break;
+                case "-wi": bench.warmupIterations(Integer.parseInt(v)); break;
+                case "-i": bench.measureIterations(Integer.parseInt(v)); break;
+                case "-t": bench.iterationMillis(Long.parseLong(v)); break;
+                case "-baseline": baseline = v; break;
+                case "-save": save = v; break;
+                case "-tolerance": tolerance = Double.parseDouble(v); break;
+                default:
+                    usage();
+                    return;
+            }
+            i++;
+        }
+
+        register(bench);
+        System.out.println(Microbench.header());
+        List<Microbench.Result> results = bench.runAll();
+
+        boolean regressed = false;
+        if (baseline != null) {
+            regressed = Microbench.compare(Microbench.loadBaseline(new File(baseline)), results, tolerance);
+        }
+        if (save != null) {
+            Microbench.saveBaseline(new File(save), results);
+            System.out.println("Baseline saved to " + save);
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    private static void register(Microbench bench) throws Exception {
+        HttpRequestParser parser = new HttpRequestParser();
+        Router router = new Router();
+        UserService userService = new UserService();
+        PasswordHasher hasher = PasswordHasher.defaults();
+        userService.register(USER, PASSWORD);
+        router.route(parse(parser, "POST /register HTTP/1.1\r\nContent-Length: " + FORM.length() + "\r\n\r\n", FORM));
+        StaticFileHandler staticFiles = new StaticFileHandler(new File("resources"), new StaticFileCache(), new Compression());
+
+        HttpRequestParser.HttpRequest home = parser.parse(new ByteArrayInputStream(GET_HOME), null);
+        HttpRequestParser.HttpRequest login = parser.parse(new ByteArrayInputStream(POST_LOGIN), FORM);
+        HttpRequestParser.HttpRequest file = parser.parse(new ByteArrayInputStream(GET_STATIC), null);
+        byte[] page = new byte[2048];
+        Arrays.fill(page, (byte) 'x');
+
+        bench.add("parser.parse", () -> parser.parse(new ByteArrayInputStream(GET_HOME), null))
+                .add("response.toBytes", () -> new HttpResponse()
+                        .status(200)
+                        .contentType("text/html; charset=utf-8")
+                        .header("Cache-Control", "no-cache")
+                        .bodyBytes(page)
+                        .toBytes())
+                .add("router.route /", () -> router.route(home))
+                .add("router.route /login", () -> router.route(login))
+                .add("router.route static", () -> close(router.route(file)))
+                .add("controller.parseFormData", () -> UserController.parseFormData(FORM))
+                .add("userService.login", () -> userService.login(USER, PASSWORD))    // 命中凭据缓存
+                .add("passwordHasher.hash", () -> hasher.hash(PASSWORD))    // 按 -Dhttp.pbkdf2Iterations 调整成本
+                .add("staticFile.handle", () -> close(staticFiles.handle(file)));
+    }
+
+    private static HttpRequestParser.HttpRequest parse(HttpRequestParser parser, String head, String body) throws Exception {
+        return parser.parse(new ByteArrayInputStream(request(head)), body);
+    }
+
+    /** 文件正文可能持有打开的通道，测量时和真实请求一样在用完后关闭 */
+    private static HttpResponse close(HttpResponse response) throws Exception {
+        response.getBody().close();
+        return response;
+    }
+
+    private static byte[] request(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: HotPathBench [-f regex] [-wi n] [-i n] [-t millis] "
+                + "[-baseline file] [-save file] [-tolerance fraction]");
+    }
+}
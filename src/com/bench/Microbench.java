@@ -0,0 +1,269 @@
+package com.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * 微基准测试框架 - 项目没有构建文件，无法引入 JMH，这里按 JMH 的做法实现最基本的部分：
+ * 预热若干轮让 JIT 编译稳定，再测量若干轮；每轮在固定时长内反复调用被测代码，
+ * 返回值写入 sink 防止被当作死代码消除。
+ *
+ * 每个基准报告吞吐量（ops/s，多轮的均值和标准差）、每次调用分配的字节数（当前线程的分配计数器，
+ * 相当于 JMH 的 -prof gc 中的 gc.alloc.rate.norm）、分配速率以及测量期间的 GC 次数和耗时。
+ * 结果可以保存为基线文件，之后的运行与基线对比，吞吐量下降或分配增加超过阈值时以非 0 退出码结束。
+ */
+public class Microbench {
+    /** 被测代码，返回值会被消费掉 */
+    public interface Body {
+        Object run() throws Exception;
+    }
+
+    /** 单个基准的测量结果 */
+    public static final class Result {
+        final String name;
+        final double opsPerSec;
+        final double opsError;      // 各轮吞吐量的标准差
+        final double bytesPerOp;
+        final double allocMBPerSec;
+        final long gcCount;
+        final long gcMillis;
+
+        Result(String name, double opsPerSec, double opsError, double bytesPerOp, double allocMBPerSec,
+               long gcCount, long gcMillis) {
+            this.name = name;
+            this.opsPerSec = opsPerSec;
+            this.opsError = opsError;
+            this.bytesPerOp = bytesPerOp;
+            this.allocMBPerSec = allocMBPerSec;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final Body body;
+
+        Entry(String name, Body body) {
+            this.name = name;
+            this.body = body;
+        }
+    }
+
+    private final List<Entry> benchmarks = new ArrayList<>();
+    private int warmupIterations = 5;
+    private int measureIterations = 5;
+    private long iterationMillis = 1000;
+    private Pattern filter;
+    private volatile Object sink;   // 防止被测代码的结果被优化掉
+    private final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+    public Microbench add(String name, Body body) {
+        benchmarks.add(new Entry(name, body));
+        return this;
+    }
+
+    public Microbench warmupIterations(int n) {
+        this.warmupIterations = n;
+        return this;
+    }
+
+    public Microbench measureIterations(int n) {
+        this.measureIterations = n;
+        return this;
+    }
+
+    public Microbench iterationMillis(long millis) {
+        this.iterationMillis = millis;
+        return this;
+    }
+
+    /** 只运行名称匹配该正则（部分匹配即可）的基准，null 表示全部 */
+    public Microbench filter(String regex) {
+        this.filter = regex == null ? null : Pattern.compile(regex);
+        return this;
+    }
+
+    public List<Result> runAll() throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (Entry e : benchmarks) {
+            if (filter != null && !filter.matcher(e.name).find()) {
+                continue;
+            }
+            Result r = run(e);
+            results.add(r);
+            System.out.println(format(r));
+        }
+        return results;
+    }
+
+    private Result run(Entry e) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(e.body);
+        }
+
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long allocBefore = allocatedBytes();
+        long totalOps = 0;
+        long totalNanos = 0;
+        double[] rates = new double[measureIterations];
+        for (int i = 0; i < measureIterations; i++) {
+            long start = System.nanoTime();
+            long ops = iteration(e.body);
+            long nanos = System.nanoTime() - start;
+            rates[i] = ops * 1e9 / nanos;
+            totalOps += ops;
+            totalNanos += nanos;
+        }
+        long allocated = allocatedBytes() - allocBefore;
+
+        double mean = 0;
+        for (double r : rates) {
+            mean += r;
+        }
+        mean /= rates.length;
+        double variance = 0;
+        for (double r : rates) {
+            variance += (r - mean) * (r - mean);
+        }
+        double stddev = rates.length > 1 ? Math.sqrt(variance / (rates.length - 1)) : 0;
+
+        double bytesPerOp = allocated < 0 ? Double.NaN : allocated / (double) totalOps;
+        double allocRate = allocated < 0 ? Double.NaN : allocated / 1048576.0 / (totalNanos / 1e9);
+        return new Result(e.name, mean, stddev, bytesPerOp, allocRate,
+                gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+    }
+
+    /**
+     * 在 iterationMillis 内反复调用，每批调用之后才读一次时钟，减少计时本身的开销
+     * @return 调用次数
+     */
+    private long iteration(Body body) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+        long ops = 0;
+        int batch = 1;
+        Object last = null;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < batch; i++) {
+                last = body.run();
+            }
+            ops += batch;
+            if (batch < 1024) {
+                batch <<= 1;
+            }
+        }
+        sink = last;
+        return ops;
+    }
+
+    /** 当前线程累计分配的字节数；JVM 不支持时返回 -1 */
+    private long allocatedBytes() {
+        if (threads == null) {
+            return -1;
+        }
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported()) {
+                b.setThreadAllocatedMemoryEnabled(true);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionTime());
+        }
+        return n;
+    }
+
+    static String header() {
+        return String.format(Locale.ROOT, "%-28s %14s %10s %12s %12s %8s",
+                "Benchmark", "ops/s", "+- error", "B/op", "alloc MB/s", "gc (ms)");
+    }
+
+    static String format(Result r) {
+        return String.format(Locale.ROOT, "%-28s %14.1f %10.1f %12.1f %12.1f %3d (%d)",
+                r.name, r.opsPerSec, r.opsError, r.bytesPerOp, r.allocMBPerSec, r.gcCount, r.gcMillis);
+    }
+
+    /**
+     * 保存基线：每个基准一行 name.ops 和 name.bytes
+     */
+    public static void saveBaseline(File file, List<Result> results) throws IOException {
+        Properties p = file.exists() ? loadBaseline(file) : new Properties();
+        for (Result r : results) {
+            p.setProperty(r.name + ".ops", String.valueOf(r.opsPerSec));
+            p.setProperty(r.name + ".bytes", String.valueOf(r.bytesPerOp));
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            p.store(out, "Microbench baseline");
+        }
+    }
+
+    public static Properties loadBaseline(File file) throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        }
+        return p;
+    }
+
+    /**
+     * 与基线对比并打印变化
+     * @param tolerance 允许的相对变化，例如 0.1 表示吞吐量下降或每次分配增加超过 10% 视为退化
+     * @return 是否有基准退化
+     */
+    public static boolean compare(Properties baseline, List<Result> results, double tolerance) {
+        boolean regressed = false;
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-28s %14s %10s %12s %10s", "vs baseline", "ops/s", "change", "B/op", "change"));
+        for (Result r : results) {
+            String ops = baseline.getProperty(r.name + ".ops");
+            String bytes = baseline.getProperty(r.name + ".bytes");
+            if (ops == null) {
+                System.out.println(String.format(Locale.ROOT, "%-28s %14s", r.name, "(no baseline)"));
+                continue;
+            }
+            double baseOps = Double.parseDouble(ops);
+            double baseBytes = bytes == null ? Double.NaN : Double.parseDouble(bytes);
+            double opsDelta = (r.opsPerSec - baseOps) / baseOps;
+            // 每次分配只有几个字节时相对变化没有意义，额外允许 16 字节的绝对误差
+            double bytesDelta = r.bytesPerOp - baseBytes;
+            boolean slower = opsDelta < -tolerance;
+            boolean fatter = bytesDelta > Math.max(16, baseBytes * tolerance);
+            regressed |= slower || fatter;
+            System.out.println(String.format(Locale.ROOT, "%-28s %14.1f %+9.1f%% %12.1f %+10.1f%s",
+                    r.name, baseOps, opsDelta * 100, baseBytes, bytesDelta,
+                    slower || fatter ? "  REGRESSION" : ""));
+        }
+        return regressed;
+    }
+}
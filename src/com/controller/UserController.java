@@ -3,20 +3,66 @@ package com.controller;
 import com.http.HttpRequestParser;
 import com.http.HttpResponse;
 import com.model.UserService;
+import com.server.Metrics;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * 用户控制器 - 处理注册和登录请求
+ *
+ * 口令哈希是 CPU 密集的计算，交给一个有界的计算线程池执行：线程数少于 CPU 核数，
+ * 登录高峰时仍有核心留给主页和静态文件；队列已满或排队超时时回复 503，而不是让请求无限堆积。
+ * 参数错误、用户不存在和近期验证过的凭据不需要计算哈希，直接在调用线程上得出结果。
  */
 public class UserController {
+    private static final Metrics.Counter LOGIN_CACHED = Metrics.get().counter("auth_logins_total",
+            "Successful logins by how the password was checked", Metrics.label("check", "cache"));
+    private static final Metrics.Counter LOGIN_HASHED = Metrics.get().counter("auth_logins_total",
+            "Successful logins by how the password was checked", Metrics.label("check", "hash"));
+    private static final Metrics.Counter REJECTED = Metrics.get().counter("auth_compute_rejected_total",
+            "Register/login requests answered with 503 because the password hashing pool was saturated");
+
     private final UserService userService;
+    private final ThreadPoolExecutor computePool;
+    private final long queueTimeoutMillis;
 
+    /**
+     * 按系统属性创建计算线程池：-Dhttp.authThreads（默认 CPU 核数的一半，至少 1）、
+     * -Dhttp.authQueueCapacity（默认 64）、-Dhttp.authQueueTimeoutMillis（默认 2000）
+     */
     public UserController() {
-        this.userService = new UserService();
+        this(new UserService(),
+                Integer.getInteger("http.authThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("http.authQueueCapacity", 64),
+                Long.getLong("http.authQueueTimeoutMillis", 2000));
+    }
+
+    /**
+     * @param queueTimeoutMillis 请求在计算线程池里排队的最长时间，超过后不再计算、回复 503
+     */
+    public UserController(UserService userService, int threads, int queueCapacity, long queueTimeoutMillis) {
+        this.userService = userService;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        AtomicInteger ids = new AtomicInteger();
+        this.computePool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread t = new Thread(r, "auth-compute-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        Metrics.get().gauge("auth_compute_queue_depth", "Register/login requests waiting for a password hashing thread",
+                () -> computePool.getQueue().size());
     }
 
     /**
@@ -24,14 +70,14 @@ public class UserController {
      * POST /register
      * 请求体格式: username=xxx&password=xxx
      */
-    public HttpResponse handleRegister(HttpRequestParser.HttpRequest request) {
+    public CompletableFuture<HttpResponse> handleRegister(HttpRequestParser.HttpRequest request) {
         // 只接受POST方法
         if (!"POST".equalsIgnoreCase(request.getMethod())) {
-            return new HttpResponse()
+            return CompletableFuture.completedFuture(new HttpResponse()
                     .status(405)  // Method Not Allowed
                     .contentType("text/plain;charset=UTF-8")
                     .body("只支持POST请求")
-                    .keepAlive(request.isKeepAlive());
+                    .keepAlive(request.isKeepAlive()));
         }
 
         // 解析请求体中的参数
@@ -40,8 +86,10 @@ public class UserController {
         String password = params.get("password");
 
         // 调用业务逻辑
-        String result = userService.register(username, password);
+        return compute(request, () -> registerResponse(request, userService.register(username, password)));
+    }
 
+    private HttpResponse registerResponse(HttpRequestParser.HttpRequest request, String result) {
         // 根据结果构造响应
         if ("注册成功".equals(result)) {
             // 注册成功，显示成功信息并提供返回首页的链接
@@ -65,25 +113,25 @@ public class UserController {
      * POST /login
      * 请求体格式: username=xxx&password=xxx
      */
-    public HttpResponse handleLogin(HttpRequestParser.HttpRequest request) {
+    public CompletableFuture<HttpResponse> handleLogin(HttpRequestParser.HttpRequest request) {
         String method = request.getMethod();
 
         // GET: 返回登录页
         if ("GET".equalsIgnoreCase(method)) {
-            return new HttpResponse()
+            return CompletableFuture.completedFuture(new HttpResponse()
                     .status(302)
                     .header("Location", "/")
                     .body("<html><body>Go back to <a href=\"/\">/</a></body></html>")
-                    .keepAlive(request.isKeepAlive());
+                    .keepAlive(request.isKeepAlive()));
         }
 
         // 只接受 POST 处理登录
         if (!"POST".equalsIgnoreCase(method)) {
-            return new HttpResponse()
+            return CompletableFuture.completedFuture(new HttpResponse()
                     .status(405)
                     .contentType("text/plain;charset=UTF-8")
                     .body("只支持POST请求")
-                    .keepAlive(request.isKeepAlive());
+                    .keepAlive(request.isKeepAlive()));
         }
 
         // 解析请求体中的参数
@@ -91,9 +139,24 @@ public class UserController {
         String username = params.get("username");
         String password = params.get("password");
 
-        // 调用业务逻辑
-        String result = userService.login(username, password);
+        // 调用业务逻辑：不需要计算哈希时直接得出结果，否则交给计算线程
+        String result = userService.loginWithoutHashing(username, password);
+        if (result != null) {
+            if ("登录成功".equals(result)) {
+                LOGIN_CACHED.increment();
+            }
+            return CompletableFuture.completedFuture(loginResponse(request, username, result));
+        }
+        return compute(request, () -> {
+            String r = userService.login(username, password);
+            if ("登录成功".equals(r)) {
+                LOGIN_HASHED.increment();
+            }
+            return loginResponse(request, username, r);
+        });
+    }
 
+    private HttpResponse loginResponse(HttpRequestParser.HttpRequest request, String username, String result) {
         // 根据结果构造响应
         if ("登录成功".equals(result)) {
             return new HttpResponse()
@@ -110,11 +173,50 @@ public class UserController {
         }
     }
 
+    /**
+     * 在计算线程池上构造响应。队列已满，或排队超过时限仍未开始计算时回复 503，任务不再执行，
+     * 客户端收到 503 就说明注册没有发生；已经开始的计算不受时限影响，最多再等一次哈希的时间
+     */
+    private CompletableFuture<HttpResponse> compute(HttpRequestParser.HttpRequest request, Supplier<HttpResponse> task) {
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        AtomicBoolean claimed = new AtomicBoolean();    // 计算线程和超时谁先取得，由谁完成响应
+        try {
+            computePool.execute(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    try {
+                        result.complete(task.get());
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            return CompletableFuture.completedFuture(unavailable(request));
+        }
+        CompletableFuture.delayedExecutor(queueTimeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (claimed.compareAndSet(false, true)) {
+                REJECTED.increment();
+                result.complete(unavailable(request));
+            }
+        });
+        return result;
+    }
+
+    private static HttpResponse unavailable(HttpRequestParser.HttpRequest request) {
+        return new HttpResponse()
+                .status(503)
+                .header("Retry-After", "1")
+                .contentType("text/plain;charset=UTF-8")
+                .body("服务器繁忙，请稍后重试")
+                .keepAlive(request.isKeepAlive());
+    }
+
     /**
      * 解析表单数据 (application/x-www-form-urlencoded)
      * 格式: key1=value1&key2=value2
      */
-    private Map<String, String> parseFormData(String body) {
+    public static Map<String, String> parseFormData(String body) {
         Map<String, String> params = new HashMap<>();
         if (body == null || body.isEmpty()) {
             return params;
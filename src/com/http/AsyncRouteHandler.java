@@ -0,0 +1,13 @@
+package com.http;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步路由处理器 - 把耗时的计算交给其他线程，返回稍后完成的响应。
+ * NIO 事件循环不会等待它完成，阻塞模式的工作线程则直接等待结果。
+ */
+@FunctionalInterface
+public interface AsyncRouteHandler {
+    CompletableFuture<HttpResponse> handle(HttpRequestParser.HttpRequest request) throws IOException;
+}
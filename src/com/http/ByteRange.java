@@ -0,0 +1,87 @@
+package com.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Range 请求头中的一个字节区间（已按资源长度换算成闭区间 [start, end]）
+ */
+public final class ByteRange {
+    private static final int MAX_RANGES = 16;   // 超过时忽略 Range，防止用大量小区间放大开销
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /** Content-Range 头的值，例如 bytes 0-499/1234 */
+    public String contentRange(long total) {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    /**
+     * 解析 Range 头，支持 bytes=a-b、bytes=a-、bytes=-n 以及逗号分隔的多个区间
+     * @param header Range 头的值
+     * @param length 资源总长度
+     * @return 可满足的区间列表；为空表示全部不可满足（应返回 416）；返回 null 表示格式不认识或区间过多，按普通请求处理
+     */
+    public static List<ByteRange> parse(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // 后缀区间：最后 n 个字节
+                    long n = Long.parseLong(last);
+                    if (n < 0) {
+                        return null;
+                    }
+                    if (n > 0 && length > 0) {
+                        ranges.add(new ByteRange(Math.max(0, length - n), length - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < length) {
+                        ranges.add(new ByteRange(start, Math.min(end, length - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges.isEmpty() ? Collections.emptyList() : ranges;
+    }
+}
@@ -0,0 +1,69 @@
+package com.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Transfer-Encoding: chunked 编码输出流 - 每次 write 输出一个分块，finish() 输出结束块。
+ * 不关闭底层流（连接可能还要继续用于长连接）。
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+    /** 结束块：长度为 0 的分块加上空的 trailer */
+    public static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] CRLF = {'\r', '\n'};
+
+    private boolean finished = false;
+    private long bytesWritten = 0;     // 写到底层流的字节数，包括分块头和结束块
+
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /** 分块头：十六进制长度 + CRLF */
+    public static byte[] chunkHeader(int size) {
+        return (Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Chunked stream already finished");
+        }
+        if (len == 0) {
+            return;     // 长度为 0 的分块表示结束，普通写入不能产生它
+        }
+        byte[] header = chunkHeader(len);
+        out.write(header);
+        out.write(b, off, len);
+        out.write(CRLF);
+        bytesWritten += header.length + len + CRLF.length;
+    }
+
+    /**
+     * 写出结束块；之后不能再写入
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            out.write(LAST_CHUNK);
+            bytesWritten += LAST_CHUNK.length;
+        }
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        flush();
+    }
+}
@@ -0,0 +1,170 @@
+package com.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 响应压缩 - 根据 Accept-Encoding 协商 gzip/deflate，只压缩值得压缩的文本类型，
+ * 并给压缩后的响应加上 Vary 头和区分编码的 ETag。
+ */
+public class Compression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final Set<String> DEFAULT_TYPES = new HashSet<>(Arrays.asList(
+            "text/html", "text/plain", "text/css", "text/xml", "text/javascript",
+            "application/json", "application/javascript", "application/xml", "image/svg+xml"));
+
+    private final int minSize;
+    private final Set<String> compressibleTypes;
+
+    public Compression() {
+        this(256, DEFAULT_TYPES);
+    }
+
+    /**
+     * @param minSize 小于该字节数的正文不压缩（压缩收益抵不过开销）
+     * @param compressibleTypes 允许压缩的 MIME 类型（不含参数，小写）
+     */
+    public Compression(int minSize, Set<String> compressibleTypes) {
+        this.minSize = minSize;
+        this.compressibleTypes = new HashSet<>(compressibleTypes);
+    }
+
+    /**
+     * 按 Accept-Encoding 选择编码，同等权重时优先 gzip
+     * @return GZIP、DEFLATE，或 null 表示不压缩
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        double gzipQ = -1;
+        double deflateQ = -1;
+        double anyQ = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] kv = part.split(";");
+            String coding = kv[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1; i < kv.length; i++) {
+                String param = kv[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                gzipQ = q;
+            } else if (DEFLATE.equals(coding)) {
+                deflateQ = q;
+            } else if ("*".equals(coding)) {
+                anyQ = q;
+            }
+        }
+        // 没有显式列出的编码继承 * 的权重
+        if (gzipQ < 0) gzipQ = anyQ;
+        if (deflateQ < 0) deflateQ = anyQ;
+        if (gzipQ > 0 && gzipQ >= deflateQ) {
+            return GZIP;
+        }
+        return deflateQ > 0 ? DEFLATE : null;
+    }
+
+    /** 该内容类型是否在允许压缩的列表中 */
+    public boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semi = contentType.indexOf(';');
+        String mime = (semi >= 0 ? contentType.substring(0, semi) : contentType).trim().toLowerCase(Locale.ROOT);
+        return compressibleTypes.contains(mime);
+    }
+
+    public boolean worthCompressing(String contentType, long length) {
+        return length >= minSize && isCompressible(contentType);
+    }
+
+    /**
+     * 按指定编码压缩
+     * @param level Deflater 压缩级别，只压缩一次的静态内容可以用 Deflater.BEST_COMPRESSION
+     */
+    public static byte[] encode(byte[] data, String encoding, int level) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, data.length / 3));
+        Deflater deflater = new Deflater(level, GZIP.equals(encoding));
+        try (DeflaterOutputStream out = GZIP.equals(encoding)
+                ? new LevelGzipOutputStream(bos, deflater)
+                : new DeflaterOutputStream(bos, deflater)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // 写内存流不会真的失败
+        } finally {
+            deflater.end();
+        }
+        return bos.toByteArray();
+    }
+
+    /** 给 ETag 加上编码后缀，区分同一资源的不同编码变体 */
+    public static String variantEtag(String etag, String encoding) {
+        if (etag == null || encoding == null) {
+            return etag;
+        }
+        if (etag.endsWith("\"")) {
+            return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        }
+        return etag + "-" + encoding;
+    }
+
+    /**
+     * 对动态生成的响应做压缩：只处理内存正文、未编码、类型和大小都合适的响应。
+     * 预编码响应（ConstantResponse）已经自带压缩变体，这里不再处理。
+     * 只要内容类型可压缩就会加上 Vary: Accept-Encoding，提醒缓存按编码区分。
+     */
+    public HttpResponse apply(HttpRequestParser.HttpRequest request, HttpResponse response) {
+        ResponseBody body = response.getBody();
+        String contentType = response.getHeader("Content-Type");
+        int status = response.getStatus();
+        if (status == 304 || status == 206 || !body.inMemory() || response.isPreEncoded()
+                || response.getHeader("Content-Encoding") != null || !isCompressible(contentType)) {
+            return response;
+        }
+        response.header("Vary", "Accept-Encoding");
+        if (body.length() < minSize) {
+            return response;
+        }
+        String encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            return response;
+        }
+        byte[] data = new byte[(int) body.length()];
+        body.toByteBuffer().get(data);
+        byte[] compressed = encode(data, encoding, Deflater.DEFAULT_COMPRESSION);
+        if (compressed.length >= data.length) {
+            return response;
+        }
+        String etag = response.getHeader("ETag");
+        if (etag != null) {
+            response.header("ETag", variantEtag(etag, encoding));
+        }
+        return response.header("Content-Encoding", encoding).bodyBytes(compressed);
+    }
+
+    /** 可以指定 Deflater 的 GZIPOutputStream（标准构造器只能用默认级别） */
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(ByteArrayOutputStream out, Deflater deflater) throws IOException {
+            super(out);
+            def.end();
+            def = deflater;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.http;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * 预编码的固定响应 - 内容不随请求变化的路由（主页、固定重定向等）在注册时把状态行、响应头和正文
+ * 一次性编码成字节，之后每次请求只是复用这些字节，不再拼接字符串，也不再做 UTF-8 编码。
+ *
+ * 2xx 响应按正文内容计算强 ETag，并处理 If-None-Match 返回 304；
+ * 可压缩的正文预先生成 gzip/deflate 变体，按 Accept-Encoding 选择。
+ * 实例不可变，内容需要更新时重新注册一个新实例即可。
+ */
+public final class ConstantResponse {
+    // 由每个请求单独决定的头，不能预先编码
+    private static final String[] DYNAMIC_HEADERS = {"Connection", "Date", "Content-Length", "Transfer-Encoding"};
+
+    /** 同一内容的一种编码表示 */
+    private static final class Variant {
+        final byte[] head;              // 200 等原状态的状态行和响应头
+        final byte[] notModifiedHead;   // 对应的 304 响应头，没有 ETag 时为 null
+        final String etag;
+        final ResponseBody body;
+
+        Variant(byte[] head, byte[] notModifiedHead, String etag, ResponseBody body) {
+            this.head = head;
+            this.notModifiedHead = notModifiedHead;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    private final int status;
+    private final Variant identity;
+    private final Variant gzip;         // 压缩没有收益或类型不可压缩时为 null
+    private final Variant deflate;
+
+    /**
+     * @param template 用普通 HttpResponse 描述的响应（状态码、响应头、内存正文）
+     * @param compression 决定是否生成压缩变体，为 null 表示不压缩
+     */
+    public ConstantResponse(HttpResponse template, Compression compression) {
+        ResponseBody body = template.getBody();
+        if (!body.inMemory()) {
+            throw new IllegalArgumentException("Constant response needs an in-memory body");
+        }
+        byte[] data = new byte[(int) body.length()];
+        body.toByteBuffer().get(data);
+
+        this.status = template.getStatus();
+        String contentType = template.getHeader("Content-Type");
+        boolean varies = compression != null && compression.isCompressible(contentType);
+        String etag = (status >= 200 && status < 300) ? strongEtag(data) : null;
+
+        this.identity = variant(template, null, data, etag, varies);
+        if (varies && compression.worthCompressing(contentType, data.length)) {
+            this.gzip = compressed(template, Compression.GZIP, data, etag);
+            this.deflate = compressed(template, Compression.DEFLATE, data, etag);
+        } else {
+            this.gzip = null;
+            this.deflate = null;
+        }
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getEtag() {
+        return identity.etag;
+    }
+
+    /**
+     * 生成本次请求的响应：按 Accept-Encoding 选变体，If-None-Match 命中时返回 304，HEAD 请求不带正文
+     */
+    public HttpResponse respond(HttpRequestParser.HttpRequest request) {
+        Variant v = select(request.getHeader("Accept-Encoding"));
+        String method = request.getMethod();
+        boolean conditional = "GET".equals(method) || "HEAD".equals(method);
+        if (conditional && v.notModifiedHead != null && etagMatches(request.getHeader("If-None-Match"), v.etag)) {
+            return new HttpResponse().preEncoded(304, v.notModifiedHead, ResponseBody.empty());
+        }
+        return new HttpResponse().preEncoded(status, v.head, "HEAD".equals(method) ? ResponseBody.empty() : v.body);
+    }
+
+    /**
+     * 不依赖请求的完整响应（未压缩、带正文），用于还没有读取请求就要回复的场景，例如过载时拒绝连接
+     */
+    public HttpResponse respond() {
+        return new HttpResponse().preEncoded(status, identity.head, identity.body);
+    }
+
+    private Variant select(String acceptEncoding) {
+        if (gzip == null && deflate == null) {
+            return identity;
+        }
+        String encoding = Compression.negotiate(acceptEncoding);
+        if (Compression.GZIP.equals(encoding) && gzip != null) {
+            return gzip;
+        }
+        if (Compression.DEFLATE.equals(encoding) && deflate != null) {
+            return deflate;
+        }
+        return identity;
+    }
+
+    private static Variant compressed(HttpResponse template, String encoding, byte[] data, String etag) {
+        byte[] encoded = Compression.encode(data, encoding, Deflater.BEST_COMPRESSION);
+        if (encoded.length >= data.length) {
+            return null;
+        }
+        return variant(template, encoding, encoded, Compression.variantEtag(etag, encoding), true);
+    }
+
+    private static Variant variant(HttpResponse template, String encoding, byte[] data, String etag, boolean varies) {
+        StringBuilder s = new StringBuilder(256);
+        s.append("HTTP/1.1 ").append(template.getStatus()).append(' ').append(template.getReason()).append("\r\n");
+        for (Map.Entry<String, String> e : template.getHeaders().entrySet()) {
+            if (!isDynamic(e.getKey())) {
+                s.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+            }
+        }
+        s.append("Content-Length: ").append(data.length).append("\r\n");
+        appendCommon(s, template, encoding, etag, varies);
+        byte[] head = s.toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] notModifiedHead = null;
+        if (etag != null) {
+            // 304 只带验证器和缓存相关的头，不带正文相关的头
+            StringBuilder nm = new StringBuilder(128);
+            nm.append("HTTP/1.1 304 Not Modified\r\n");
+            String cacheControl = template.getHeader("Cache-Control");
+            if (cacheControl != null) {
+                nm.append("Cache-Control: ").append(cacheControl).append("\r\n");
+            }
+            appendCommon(nm, template, null, etag, varies);
+            notModifiedHead = nm.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return new Variant(head, notModifiedHead, etag, ResponseBody.ofBytes(data));
+    }
+
+    private static void appendCommon(StringBuilder s, HttpResponse template, String encoding, String etag, boolean varies) {
+        if (encoding != null) {
+            s.append("Content-Encoding: ").append(encoding).append("\r\n");
+        }
+        if (etag != null) {
+            s.append("ETag: ").append(etag).append("\r\n");
+        }
+        if (varies) {
+            s.append("Vary: Accept-Encoding\r\n");
+        }
+        if (template.getHeader("com") == null) {
+            s.append("com: SimpleJavaHttpServer/1.0\r\n");
+        }
+    }
+
+    private static boolean isDynamic(String name) {
+        for (String d : DYNAMIC_HEADERS) {
+            if (d.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 正文 SHA-256 的前 16 字节作为强 ETag */
+    private static String strongEtag(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder s = new StringBuilder(34).append('"');
+            for (int i = 0; i < 16; i++) {
+                s.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return s.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // 所有 JRE 都必须提供 SHA-256
+        }
+    }
+
+    /** If-None-Match 比较（弱比较）：支持 * 和逗号分隔的多个 ETag */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+package com.http;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HTTP 日期（RFC 1123，例如 Sun, 06 Nov 1994 08:49:37 GMT）的格式化和缓存。
+ *
+ * Date 头的精度只有一秒，当前时间的字符串和编码好的 "Date: ...\r\n" 每秒只生成一次，
+ * 同一秒内的响应直接复用同一个引用。Last-Modified 等文件时间按秒缓存格式化结果，
+ * 并记录反向映射，客户端原样带回的 If-Modified-Since / If-Range 不必再解析。
+ */
+public final class HttpDate {
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final int MAX_CACHED = 1024;
+
+    /** 某一秒对应的 Date 值 */
+    private static final class Tick {
+        final long second;
+        final String text;
+        final byte[] header;    // "Date: <text>\r\n"
+
+        Tick(long second) {
+            this.second = second;
+            this.text = FORMAT.format(Instant.ofEpochSecond(second));
+            this.header = ("Date: " + text + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static volatile Tick current = new Tick(System.currentTimeMillis() / 1000);
+
+    // 文件时间（秒）-> 格式化结果，以及反向映射
+    private static final Map<Long, String> formatted = new ConcurrentHashMap<>();
+    private static final Map<String, Long> parsed = new ConcurrentHashMap<>();
+
+    private HttpDate() {
+    }
+
+    private static Tick tick() {
+        Tick t = current;
+        long second = System.currentTimeMillis() / 1000;
+        if (t.second != second) {
+            // 跨秒时重新生成；并发时可能多个线程各生成一次，结果相同，无需加锁
+            t = new Tick(second);
+            current = t;
+        }
+        return t;
+    }
+
+    /** 当前时间的 Date 头值 */
+    public static String now() {
+        return tick().text;
+    }
+
+    /** 编码好的整行 Date 头（含 CRLF），调用方不得修改 */
+    public static byte[] nowHeaderBytes() {
+        return tick().header;
+    }
+
+    /**
+     * 格式化时间（精确到秒），结果会被缓存，适合 Last-Modified 这类反复出现的时间
+     */
+    public static String format(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        String s = formatted.get(second);
+        if (s == null) {
+            s = FORMAT.format(Instant.ofEpochSecond(second));
+            if (formatted.size() >= MAX_CACHED) {
+                // 简单地整体清空，正常情况下缓存里只有少量文件时间
+                formatted.clear();
+                parsed.clear();
+            }
+            formatted.put(second, s);
+            parsed.put(s, second * 1000);
+        }
+        return s;
+    }
+
+    /**
+     * 解析 HTTP 日期
+     * @return 毫秒时间戳（整秒）；格式错误返回 -1
+     */
+    public static long parse(String text) {
+        if (text == null) {
+            return -1;
+        }
+        Long cached = parsed.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return ZonedDateTime.parse(text.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
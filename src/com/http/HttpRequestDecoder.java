@@ -0,0 +1,409 @@
+package com.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 增量式 HTTP 请求解码器 - 直接在字节缓冲区上按状态机解析，一遍得到 HttpRequest。
+ *
+ * 每次调用 decode() 都会消费掉缓冲区里的全部可用字节（或者消费到一个请求结束为止），
+ * 数据不足时保存中间状态并返回 null，等下一批数据到来后继续解析。
+ * 因此既可以用在阻塞的 ConnectionHandler 上，也可以用在非阻塞的 EventLoop 上。
+ * 一个解码器对应一个连接，不是线程安全的。
+ *
+ * 请求体严格按 Content-Length 的字节数读取：超过 maxBodySize 的请求直接以 413 拒绝，
+ * 超过 spillThreshold 的请求体边读边写入临时文件，不在堆上分配同样大小的数组。
+ * 带 Expect: 100-continue 的请求在等待请求体时，expectsContinue() 会提示调用方先回复 100 Continue。
+ * 不支持分块编码的请求体：带 Transfer-Encoding 或多个不一致 Content-Length 的请求以 400 拒绝，
+ * 不去猜测请求体的边界，避免与前面的代理对报文边界的判断不一致（请求走私）。
+ */
+public class HttpRequestDecoder {
+    /** 请求格式错误或无法接受，调用方应返回 getStatus()（默认 400）并关闭连接 */
+    public static class BadRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        public BadRequestException(String message) {
+            this(400, message);
+        }
+
+        public BadRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    private static final int MAX_LINE = 8192;          // 请求行或单个请求头的最大长度
+    private static final int MAX_HEADERS = 100;
+    // 默认值可以用系统属性调整，单个解码器也可以用 maxBodySize()/spillThreshold() 单独设置
+    private static final long DEFAULT_MAX_BODY = Long.getLong("http.maxBodySize", 64L * 1024 * 1024);
+    private static final int DEFAULT_SPILL_THRESHOLD = Integer.getInteger("http.bodySpillThreshold", 256 * 1024);
+
+    // 常见的方法、版本和请求头名称，命中时直接复用常量字符串，不再分配
+    private static final String[] METHODS = {"GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "PATCH"};
+    private static final String[] VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+    private static final String[] HEADER_NAMES = {
+            "host", "connection", "content-length", "content-type", "accept", "accept-encoding",
+            "accept-language", "user-agent", "cookie", "referer", "origin", "cache-control", "pragma",
+            "if-none-match", "if-modified-since", "if-range", "range", "expect", "transfer-encoding",
+            "upgrade-insecure-requests", "sec-fetch-site", "sec-fetch-mode", "sec-fetch-dest"
+    };
+    private static final byte[][] METHOD_BYTES = ascii(METHODS);
+    private static final byte[][] VERSION_BYTES = ascii(VERSIONS);
+    private static final byte[][] HEADER_NAME_BYTES = ascii(HEADER_NAMES);
+
+    private enum State { START, METHOD, TARGET, VERSION, HEADER_START, HEADER_NAME, HEADER_VALUE, BODY }
+
+    private State state = State.START;
+    private byte[] token = new byte[256];   // 当前正在累积的记号（方法/路径/头名/头值）
+    private int tokenLength = 0;
+
+    private String method;
+    private String path;
+    private String version;
+    private String headerName;
+    private Map<String, String> headers = new LinkedHashMap<>();
+    private long contentLength = 0;
+    private boolean contentLengthSeen = false;  // 当前请求是否已有 Content-Length 头
+    private byte[] body;                    // 内存中的请求体
+    private File spillFile;                 // 溢出到磁盘的请求体
+    private FileChannel spillChannel;
+    private long bodyRead = 0;
+    private boolean skipBody = false;
+    private boolean expectContinue = false;
+
+    private long maxBodySize = DEFAULT_MAX_BODY;
+    private int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+
+    /**
+     * 允许的最大请求体字节数，超过时抛出状态码为 413 的 BadRequestException
+     */
+    public HttpRequestDecoder maxBodySize(long bytes) {
+        this.maxBodySize = bytes;
+        return this;
+    }
+
+    /**
+     * 请求体超过该字节数时写入临时文件而不是内存
+     */
+    public HttpRequestDecoder spillThreshold(int bytes) {
+        this.spillThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * 当前请求带有 Expect: 100-continue、请求头已经接受、正在等待请求体时返回 true（每个请求只返回一次），
+     * 调用方应立即写出 "HTTP/1.1 100 Continue"
+     */
+    public boolean expectsContinue() {
+        boolean e = expectContinue;
+        expectContinue = false;
+        return e;
+    }
+
+    /** 还没有收到下一个请求的任何数据（连接处于请求之间的空闲状态） */
+    public boolean isIdle() {
+        return state == State.START;
+    }
+
+    /** 已经收到请求的开头，请求行或请求头还没读完 */
+    public boolean isReadingHeaders() {
+        return state != State.START && state != State.BODY;
+    }
+
+    /**
+     * 只解析请求行和请求头，不读取请求体（供 HttpRequestParser.parse 兼容旧接口使用）
+     */
+    void skipBody(boolean skip) {
+        this.skipBody = skip;
+    }
+
+    /**
+     * 从缓冲区（读模式）解析请求
+     * @param buf 输入数据，解析过的字节会被消费掉
+     * @return 一个完整的请求；数据不足时返回 null
+     * @throws BadRequestException 请求格式错误或请求体过大
+     * @throws IOException 写临时文件失败
+     */
+    public HttpRequestParser.HttpRequest decode(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (state == State.BODY) {
+                int n = (int) Math.min(buf.remaining(), contentLength - bodyRead);
+                if (body != null) {
+                    buf.get(body, (int) bodyRead, n);
+                } else {
+                    // 直接把缓冲区中的这一段写入文件，不经过中间数组
+                    ByteBuffer slice = buf.duplicate();
+                    slice.limit(slice.position() + n);
+                    while (slice.hasRemaining()) {
+                        spillChannel.write(slice);
+                    }
+                    buf.position(buf.position() + n);
+                }
+                bodyRead += n;
+                expectContinue = false;     // 客户端已经开始发送请求体
+                if (bodyRead == contentLength) {
+                    return complete();
+                }
+                continue;
+            }
+
+            byte b = buf.get();
+            switch (state) {
+                case START:
+                    // 请求之间允许出现多余的空行
+                    if (b != '\r' && b != '\n') {
+                        state = State.METHOD;
+                        append(b);
+                    }
+                    break;
+
+                case METHOD:
+                    if (b == ' ') {
+                        method = lookup(METHOD_BYTES, METHODS, StandardCharsets.US_ASCII);
+                        state = State.TARGET;
+                    } else if (b == '\r' || b == '\n') {
+                        throw new BadRequestException("Malformed request line");
+                    } else {
+                        append(b);
+                    }
+                    break;
+
+                case TARGET:
+                    if (b == ' ') {
+                        if (tokenLength > 0) {
+                            path = takeString(StandardCharsets.UTF_8);
+                            state = State.VERSION;
+                        }
+                    } else if (b == '\r' || b == '\n') {
+                        throw new BadRequestException("Malformed request line");
+                    } else {
+                        append(b);
+                    }
+                    break;
+
+                case VERSION:
+                    if (b == '\n') {
+                        if (tokenLength == 0) {
+                            throw new BadRequestException("Missing HTTP version");
+                        }
+                        version = lookup(VERSION_BYTES, VERSIONS, StandardCharsets.US_ASCII);
+                        state = State.HEADER_START;
+                    } else if (b != '\r' && b != ' ') {
+                        append(b);
+                    }
+                    break;
+
+                case HEADER_START:
+                    if (b == '\n') {
+                        // 空行：请求头结束
+                        if (contentLength == 0 || skipBody) {
+                            return complete();
+                        }
+                        startBody();
+                        state = State.BODY;
+                    } else if (b == ' ' || b == '\t') {
+                        throw new BadRequestException("Obsolete header line folding");
+                    } else if (b != '\r') {
+                        state = State.HEADER_NAME;
+                        append(lower(b));
+                    }
+                    break;
+
+                case HEADER_NAME:
+                    if (b == ':') {
+                        headerName = lookup(HEADER_NAME_BYTES, HEADER_NAMES, StandardCharsets.ISO_8859_1);
+                        state = State.HEADER_VALUE;
+                    } else if (b == '\n') {
+                        tokenLength = 0;    // 没有冒号的行直接忽略
+                        state = State.HEADER_START;
+                    } else if (b != '\r') {
+                        append(lower(b));
+                    }
+                    break;
+
+                case HEADER_VALUE:
+                    if (b == '\n') {
+                        while (tokenLength > 0 && isWhitespace(token[tokenLength - 1])) {
+                            tokenLength--;
+                        }
+                        onHeader();
+                        state = State.HEADER_START;
+                    } else if (b != '\r' && !(tokenLength == 0 && isWhitespace(b))) {
+                        append(b);
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 丢弃当前解析进度，准备解析下一个请求
+     */
+    public void reset() {
+        discardSpill();
+        state = State.START;
+        tokenLength = 0;
+        method = null;
+        path = null;
+        version = null;
+        headerName = null;
+        headers = new LinkedHashMap<>();
+        contentLength = 0;
+        contentLengthSeen = false;
+        body = null;
+        bodyRead = 0;
+        expectContinue = false;
+    }
+
+    /** 请求头结束，按长度决定请求体放内存还是临时文件 */
+    private void startBody() throws IOException {
+        String expect = headers.get("expect");
+        if (expect != null) {
+            if (!"100-continue".equalsIgnoreCase(expect)) {
+                throw new BadRequestException(417, "Unsupported expectation: " + expect);
+            }
+            expectContinue = "HTTP/1.1".equals(version);
+        }
+        if (contentLength <= spillThreshold) {
+            body = new byte[(int) contentLength];
+        } else {
+            spillFile = Files.createTempFile("http-body-", ".tmp").toFile();
+            spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.WRITE);
+        }
+    }
+
+    /** 关闭并删除未完成请求的临时文件 */
+    private void discardSpill() {
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+            } catch (IOException ignore) {
+                // 关闭失败无需处理
+            }
+            spillChannel = null;
+        }
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+
+    private void onHeader() throws BadRequestException {
+        if (headers.size() >= MAX_HEADERS) {
+            throw new BadRequestException("Too many headers");
+        }
+        if ("transfer-encoding".equals(headerName)) {
+            throw new BadRequestException("Transfer-Encoding is not supported");
+        }
+        if ("content-length".equals(headerName)) {
+            // 直接从字节解析数字，不经过字符串
+            long len = 0;
+            if (tokenLength == 0) {
+                throw new BadRequestException("Bad Content-Length");
+            }
+            for (int i = 0; i < tokenLength; i++) {
+                byte d = token[i];
+                if (d < '0' || d > '9') {
+                    throw new BadRequestException("Bad Content-Length");
+                }
+                len = len * 10 + (d - '0');
+                if (len > maxBodySize) {
+                    throw new BadRequestException(413, "Request body too large");
+                }
+            }
+            if (contentLengthSeen && len != contentLength) {
+                throw new BadRequestException("Conflicting Content-Length");
+            }
+            contentLength = len;
+            contentLengthSeen = true;
+        }
+        headers.put(headerName, takeString(StandardCharsets.UTF_8));
+    }
+
+    private HttpRequestParser.HttpRequest complete() throws IOException {
+        RequestBody requestBody;
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+            requestBody = RequestBody.ofTempFile(spillFile, bodyRead);
+            spillFile = null;   // 文件归请求体所有，reset() 不再删除
+        } else {
+            requestBody = body == null ? RequestBody.empty() : RequestBody.ofBytes(body);
+        }
+        HttpRequestParser.HttpRequest req = new HttpRequestParser.HttpRequest(method, path, version, headers, requestBody);
+        reset();
+        return req;
+    }
+
+    private void append(byte b) throws BadRequestException {
+        if (tokenLength == token.length) {
+            if (token.length >= MAX_LINE) {
+                throw new BadRequestException("Request line or header too long");
+            }
+            byte[] bigger = new byte[Math.min(token.length * 2, MAX_LINE)];
+            System.arraycopy(token, 0, bigger, 0, tokenLength);
+            token = bigger;
+        }
+        token[tokenLength++] = b;
+    }
+
+    private String takeString(java.nio.charset.Charset charset) {
+        String s = new String(token, 0, tokenLength, charset);
+        tokenLength = 0;
+        return s;
+    }
+
+    /** 在常量表里查找当前记号，命中返回常量，否则新建字符串 */
+    private String lookup(byte[][] table, String[] values, java.nio.charset.Charset charset) {
+        outer:
+        for (int i = 0; i < table.length; i++) {
+            byte[] candidate = table[i];
+            if (candidate.length != tokenLength) {
+                continue;
+            }
+            for (int j = 0; j < tokenLength; j++) {
+                if (candidate[j] != token[j]) {
+                    continue outer;
+                }
+            }
+            tokenLength = 0;
+            return values[i];
+        }
+        return takeString(charset);
+    }
+
+    private static byte lower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static byte[][] ascii(String[] values) {
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+}
@@ -1,8 +1,7 @@
 package com.http;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.io.IOException;
 
@@ -10,79 +9,125 @@ public class HttpRequestParser {
 
     public static class HttpRequest{
         private final String method;
-        private final String path;
+        private final String target;    //原始的请求目标（含查询串）
+        private final String path;      //去掉查询串的路径
+        private final String query;     //查询串（不含 ?），没有时为 null
         private final String version;
         private final Map<String, String> headers;
-        private final String body;
+        private final RequestBody body;
+        private String bodyText;     //按需解码的字符串形式，只在调用 getBody() 时生成
+        private Map<String, String> queryParams;    //第一次访问时解析，之后复用
+        private Map<String, String> pathParams=Collections.emptyMap();  //路由匹配时填入
 
-        HttpRequest(String method, String path, String version, Map<String, String> headers, String body){
+        HttpRequest(String method, String target, String version, Map<String, String> headers, RequestBody body){
             this.method=method;
-            this.path=path;
+            this.target=target;
+            //请求目标只在这里拆分一次，路由和处理器都直接使用拆好的路径和查询串
+            int q=target==null?-1:target.indexOf('?');
+            this.path=q<0?target:target.substring(0,q);
+            this.query=q<0?null:target.substring(q+1);
             this.version=version;
             this.headers=headers;
             this.body=body;
         }
 
         public String getMethod() {return method;}
-        public String getPath(){return path;}
+        public String getPath(){return path;}//不含查询串
+        public String getTarget(){return target;}
+        public String getQuery(){return query;}
         public String getVersion(){return version;}
-        public String getBody(){return body;}
+        //查询参数（已 URL 解码），同名参数取第一个
+        public Map<String, String> getQueryParams(){
+            if(queryParams==null){
+                queryParams=parseQuery(query);
+            }
+            return queryParams;
+        }
+        public String getQueryParam(String name){return getQueryParams().get(name);}
+        //路径参数，例如模式 /users/{id} 中的 id
+        public String getPathParam(String name){return pathParams.get(name);}
+        public Map<String, String> getPathParams(){return pathParams;}
+        void pathParams(Map<String, String> params){this.pathParams=params;}
+        //请求体按 UTF-8 解码成字符串，适合表单等小请求体；大请求体请用 getBodyStream()
+        public String getBody(){
+            if(bodyText==null){
+                bodyText=body.asString(java.nio.charset.StandardCharsets.UTF_8);
+            }
+            return bodyText;
+        }
+        public RequestBody getRequestBody(){return body;}
+        public InputStream getBodyStream() throws IOException{return body.openStream();}
         public String getHeader(String name){return headers.getOrDefault(name.toLowerCase(),null);}//找到返回对应值，没找到返回空
 
         public Map<String, String> getHeaders() {
             return Collections.unmodifiableMap(headers);////这是为什么
         }
         //是否长连接的判断
-        public boolean isKeepAlive(){
-            String c=getHeader("connection");/////这是和什么搭配起来的，没看懂
+        public boolean isKeepAlive(){//HTTP/1.1 默认长连接，除非 Connection: close；HTTP/1.0 需要显式的 Connection: keep-alive
+            String c=getHeader("connection");
+            if("HTTP/1.1".equals(version)){
+                return c==null||!c.equalsIgnoreCase("close");
+            }
             return c!=null&&c.equalsIgnoreCase("keep-alive");
         }
-    }
-
-    //下面是解析请求的函数，阻塞直到读到空行，按照Content-Length再读体
-    public HttpRequest parse(InputStream in,String body1) throws IOException{
 
-        BufferedReader reader=new BufferedReader(new InputStreamReader(in));
-        String startLine=reader.readLine();
-        if(startLine==null||startLine.isEmpty()) return null;
+        @Override
+        public String toString(){//还原请求行和请求头，用于日志输出
+            StringBuilder sb=new StringBuilder();
+            sb.append(method).append(' ').append(target).append(' ').append(version).append("\r\n");
+            for(Map.Entry<String,String> e:headers.entrySet()){
+                sb.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+            }
+            sb.append("\r\n").append(body);
+            return sb.toString();
+        }
 
-        String[] parts=startLine.split("\\s+");//用任意数量的空格来划分字符串
+        private static Map<String, String> parseQuery(String query){
+            if(query==null||query.isEmpty()){
+                return Collections.emptyMap();
+            }
+            Map<String, String> params=new LinkedHashMap<>();
+            int start=0;
+            while (start<=query.length()){
+                int amp=query.indexOf('&',start);
+                int end=amp<0?query.length():amp;
+                int eq=query.indexOf('=',start);
+                if(end>start){
+                    String key=eq<0||eq>end?query.substring(start,end):query.substring(start,eq);
+                    String value=eq<0||eq>end?"":query.substring(eq+1,end);
+                    try {
+                        params.putIfAbsent(java.net.URLDecoder.decode(key,"UTF-8"),java.net.URLDecoder.decode(value,"UTF-8"));
+                    } catch (IllegalArgumentException|java.io.UnsupportedEncodingException e) {
+                        //格式错误的转义序列，忽略该参数
+                    }
+                }
+                start=end+1;
+            }
+            return params;
+        }
 
-        String method=parts[0];
-        String path=parts[1];
-        String version=parts[2];
+        //请求处理完毕后释放请求体（删除溢出的临时文件）
+        public void close(){
+            body.close();
+        }
+    }
 
-        Map<String,String> headers=new LinkedHashMap<>();
-        String line;
+    //下面是解析请求的函数，阻塞直到读到空行；请求体由调用方读好后传入
+    //内部交给 HttpRequestDecoder 按字节解析，不再经过 BufferedReader 逐行读取
+    public HttpRequest parse(InputStream in,String body1) throws IOException{
+        HttpRequestDecoder decoder=new HttpRequestDecoder();
+        decoder.skipBody(true);
 
-        //下面开始读取
-        while ((line=reader.readLine())!=null&&!line.isEmpty()){
-            int index=line.indexOf(':');
-            if(index>0){
-                String name=line.substring(0,index).trim().toLowerCase();/////trim()用来去掉前后空格
-                String value=line.substring(index+1).trim();
-                headers.put(name,value);
-            }
+        byte[] chunk=new byte[1024];
+        ByteBuffer buf=ByteBuffer.wrap(chunk,0,0);
+        HttpRequest head=null;
+        int n;
+        while (head==null&&(n=in.read(chunk))!=-1){
+            buf.clear().limit(n);
+            head=decoder.decode(buf);
         }
+        if(head==null) return null;
 
-        String body=body1;
-//        String cl=headers.get("content-length");
-//        if(cl!=null){
-//            int len;
-//            try{ len=Integer.parseInt(cl);}
-//            catch (NumberFormatException e){ len=0;}
-//            if(len>0){
-//                char[] buf=new char[len];
-//                int off=0;
-//                while (off<len){
-//                    int r=reader.read(buf,off,len-off);
-//                    if(r==-1) break;
-//                    off+=r;
-//                }
-//                body=new String(buf,0,off);
-//            }
-//        }
-
-        return new HttpRequest(method,path,version,headers,body);
+        return new HttpRequest(head.getMethod(),head.getTarget(),head.getVersion(),head.headers,RequestBody.ofString(body1));
     }
 }
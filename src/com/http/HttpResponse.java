@@ -1,5 +1,12 @@
 package com.http;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.nio.charset.StandardCharsets;
 
@@ -8,24 +15,41 @@ public class HttpResponse {
     private int status;//HTTP状态码，也就是静态代码块里的数字
     private String reason;//状态码对应的原因短语
     private final Map<String,String> headers=new LinkedHashMap<>();//存储响应头部信息，linked来保证插入顺序。
-    private byte[] body;//存储响应的正文数据
+    private ResponseBody body;//存储响应的正文数据（内存字节或文件区间）
+    private byte[] preEncodedHead;//预先编码好的状态行和固定响应头（不含结尾空行），见 ConstantResponse
+    private long declaredLength=-2;//HEAD 响应去掉正文后仍在 Content-Length 里声明的长度，-2 表示按正文计算
 
     private static final Map<Integer,String> REASONS=new LinkedHashMap<>();//静态映射表，存储了常见的状态码和原因短语。
     /// 静态代码块里面是数字和响应状态的对应关系
     static {
         REASONS.put(200,"OK");
+        REASONS.put(206,"Partial Content");
         REASONS.put(301,"Moved Permanently");
         REASONS.put(302,"Found");
+        REASONS.put(400,"Bad Request");
+        REASONS.put(403,"Forbidden");
         REASONS.put(404,"Not Found");
         REASONS.put(304,"Not Modified");
         REASONS.put(405,"Method Not Allowed");
+        REASONS.put(408,"Request Timeout");
+        REASONS.put(413,"Payload Too Large");
+        REASONS.put(416,"Range Not Satisfiable");
+        REASONS.put(417,"Expectation Failed");
+        REASONS.put(429,"Too Many Requests");
         REASONS.put(500,"Internal Server Error");
+        REASONS.put(503,"Service Unavailable");
         REASONS.put(401,"Unauthorized");
+        for(Map.Entry<Integer,String> e:REASONS.entrySet()){
+            ResponseEncoder.registerStatus(e.getKey(),e.getValue());//预编码状态行
+        }
     }
+    //Expect: 100-continue 的中间响应，收到后客户端才开始发送请求体
+    public static final byte[] CONTINUE="HTTP/1.1 100 Continue\r\n\r\n".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+
     public HttpResponse() {
         this.status = 200;
         this.reason = REASONS.get(200);
-        this.body = new byte[0];
+        this.body = ResponseBody.empty();
     }
 
     public HttpResponse status(int code){
@@ -37,20 +61,74 @@ public class HttpResponse {
         headers.put(name,value);
         return this;
     }
+    public String getHeader(String name){//按名称（忽略大小写）读取已设置的响应头，没有返回 null
+        for(Map.Entry<String,String> e:headers.entrySet()){
+            if(e.getKey().equalsIgnoreCase(name)){
+                return e.getValue();
+            }
+        }
+        return null;
+    }
     public HttpResponse contentType(String mime){//快捷方法，便于设置Content-Type头
         return header("Content-Type",mime);
     }
 
     public HttpResponse body(String text){
         if(text==null){
-            body=new byte[0];
+            body=ResponseBody.empty();
         }else {//设置响应的文本正文，强制使用UTF-8编码
-            body=text.getBytes(StandardCharsets.UTF_8);
+            body=ResponseBody.ofBytes(text.getBytes(StandardCharsets.UTF_8));
         }
         return this;
     }
     public HttpResponse bodyBytes(byte[] data){//设置响应的原始字节正文
-        body=(data==null)?new byte[0]:data;
+        body=ResponseBody.ofBytes(data);
+        return this;
+    }
+    public HttpResponse body(ResponseBody responseBody){//设置任意类型的正文，例如直接从文件发送的 ResponseBody.ofFile()
+        body=(responseBody==null)?ResponseBody.empty():responseBody;
+        return this;
+    }
+    public ResponseBody getBody(){
+        return body;
+    }
+    public int getStatus(){
+        return status;
+    }
+    String getReason(){
+        return reason;
+    }
+    public Map<String,String> getHeaders(){
+        return Collections.unmodifiableMap(headers);
+    }
+    //是否为预编码响应：固定部分已是字节，不再参与压缩等改写
+    public boolean isPreEncoded(){
+        return preEncodedHead!=null;
+    }
+    /**
+     * 使用预先编码好的状态行和固定响应头，之后只有 Connection 等逐请求变化的头和 Date 需要临时编码
+     * @param head 以 CRLF 结尾的状态行和响应头，不含结尾空行
+     */
+    HttpResponse preEncoded(int code,byte[] head,ResponseBody responseBody){
+        status(code);
+        this.preEncodedHead=head;
+        this.body=responseBody;
+        return this;
+    }
+    /**
+     * HEAD 响应：响应头照旧描述正文（Content-Length、ETag、Last-Modified 等与 GET 相同），但不发送正文。
+     * 正文在这里关闭并换成空正文，各个写出路径都不需要再区分 HEAD
+     */
+    public HttpResponse withoutBody(){
+        if(preEncodedHead==null&&declaredLength==-2){
+            declaredLength=body.length();
+            try {
+                body.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            body=ResponseBody.empty();
+        }
         return this;
     }
     public HttpResponse keepAlive(boolean keep){//控制HTTP连接时长连接还是关闭
@@ -71,39 +149,128 @@ public class HttpResponse {
 
     public HttpResponse notModified(){
         status(304);
-        bodyBytes(new byte[0]);//304没有正文
+        body(ResponseBody.empty());//304没有正文
         headers.remove("Content-Type");//移除正文相关的头
         return this;
     }
-    private void finalizeHeaders(){
-        if(status!=304){
-            header("Content-Length",String.valueOf(body.length));//设置正文长度头
-        }else {
-            header("Content-Length","0");
-        }
-        if(!headers.containsKey("Date")){
-            header("Date",java.time.ZonedDateTime.now().toString());
-            //设置当前时间为Date头
+    /**
+     * 把状态行和响应头（含结尾空行）直接编码进 buf（写模式）：状态行和常见头名来自预编码表，
+     * 头的值逐字符写入，Content-Length 直接写数字，Date 复用时钟缓存的字节
+     * @return false 表示 buf 空间不足，此时 buf 的 position 恢复为调用前的位置
+     */
+    public boolean encodeHeaders(ByteBuffer buf){
+        int start=buf.position();
+        try {
+            if(preEncodedHead!=null){
+                buf.put(preEncodedHead);
+            }else {
+                ResponseEncoder.putStatusLine(buf,status,reason);
+            }
+            for(Map.Entry<String,String> e:headers.entrySet()){
+                String name=e.getKey();
+                if(preEncodedHead==null&&(name.equals("Content-Length")||name.equals("Transfer-Encoding"))){
+                    continue;//分帧相关的头由正文决定，下面统一写
+                }
+                ResponseEncoder.putHeader(buf,name,e.getValue());
+            }
+            if(preEncodedHead==null){
+                long length=declaredLength!=-2?declaredLength:body.length();
+                if(status==304){
+                    buf.put(ResponseEncoder.CONTENT_LENGTH).put((byte)'0').put(ResponseEncoder.CRLF);
+                }else if(length<0){
+                    //长度未知的流式正文用分块编码，不能再带 Content-Length
+                    buf.put(ResponseEncoder.CHUNKED);
+                }else {
+                    buf.put(ResponseEncoder.CONTENT_LENGTH);
+                    ResponseEncoder.putLong(buf,length);
+                    buf.put(ResponseEncoder.CRLF);
+                }
+            }
+            if(!headers.containsKey("Date")){
+                buf.put(HttpDate.nowHeaderBytes());//RFC 1123 格式，每秒只编码一次
+            }
+            if(preEncodedHead==null&&!headers.containsKey("com")){
+                buf.put(ResponseEncoder.SERVER);
+            }
+            buf.put(ResponseEncoder.CRLF);
+            return true;
+        } catch (BufferOverflowException e) {
+            buf.position(start);
+            return false;
         }
-        if(!headers.containsKey("com")){
-            header("com","SimpleJavaHttpServer/1.0");
+    }
+
+    /**
+     * 只编码状态行和响应头（含结尾空行），返回独立的字节数组
+     */
+    public byte[] headerBytes(){
+        ByteBuffer head=ResponseEncoder.encodeToScratch(this);
+        byte[] bytes=new byte[head.remaining()];
+        head.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 把响应写到阻塞连接上：内存正文直接写入 out，文件正文先 flush 响应头，再经 channel 零拷贝发送
+     * @param channel 套接字通道，可为 null（此时文件正文经 out 分块拷贝，仍不会整体读入内存）
+     * @return 写出的字节数（响应头 + 正文，分块正文包括分块头）
+     */
+    public long writeTo(OutputStream out, WritableByteChannel channel) throws IOException{
+        try {
+            //响应头编码在线程私有的暂存区里，直接写进 out，不生成中间数组
+            ByteBuffer head=ResponseEncoder.encodeToScratch(this);
+            long written=head.remaining();
+            out.write(head.array(),head.arrayOffset()+head.position(),head.remaining());
+            if(status==304||body.length()==0){
+                return written;
+            }
+            if(!body.inMemory()){
+                out.flush();
+            }
+            if(body.length()<0){
+                //长度未知：正文写进分块编码流，最后补上结束块
+                ChunkedOutputStream chunked=new ChunkedOutputStream(out);
+                body.writeTo(chunked,null);
+                chunked.finish();
+                return written+chunked.getBytesWritten();
+            }
+            body.writeTo(out,channel);
+            return written+body.length();
+        } finally {
+            body.close();
         }
     }
+
     public byte[] toBytes(){//把对象形式存储的数据转成HTTP报文，来发给客户端
-        finalizeHeaders();
-        StringBuilder s=new StringBuilder();
-        s.append("HTTP/1.1 ").append(status).append(" ").append(reason).append("\r\n");
-        for(Map.Entry<String,String> e:headers.entrySet()){
-            s.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+        if(status==304||body.length()==0){
+            return headerBytes();
+        }
+        if(body instanceof ResponseBody.Bytes){
+            //响应头先编码到暂存区，结果数组只分配一次
+            ByteBuffer head=ResponseEncoder.encodeToScratch(this);
+            byte[] data=((ResponseBody.Bytes) body).data;
+            byte[] all=new byte[head.remaining()+data.length];
+            int headLength=head.remaining();
+            head.get(all,0,headLength);
+            System.arraycopy(data,0,all,headLength,data.length);
+            return all;
         }
-        s.append("\r\n");
-        byte[] headerBytes=s.toString().getBytes(StandardCharsets.UTF_8);
-        if(status==304||body.length==0){
-            return headerBytes;
+        byte[] headerBytes=headerBytes();
+        //非内存正文（如文件）需要先读出来，只在不方便流式写出的场景使用
+        ByteArrayOutputStream all=new ByteArrayOutputStream(headerBytes.length+(int)Math.max(0,body.length()));
+        try {
+            all.write(headerBytes);
+            if(body.length()<0){
+                ChunkedOutputStream chunked=new ChunkedOutputStream(all);
+                body.writeTo(chunked,null);
+                chunked.finish();
+            }else {
+                body.writeTo(all,null);
+            }
+            body.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        byte[] all=new byte[headerBytes.length+body.length];
-        System.arraycopy(headerBytes,0,all,0,headerBytes.length);
-        System.arraycopy(body,0,all,headerBytes.length,body.length);
-        return all;
+        return all.toByteArray();
     }
 }
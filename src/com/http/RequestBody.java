@@ -0,0 +1,94 @@
+package com.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * 请求体 - 按 Content-Length 精确读取的字节，小请求体放在内存里，
+ * 超过阈值的请求体由解码器直接写进临时文件，不在堆上分配同样大小的数组。
+ *
+ * 临时文件在 close() 时删除，连接处理完一个请求后负责关闭。
+ */
+public final class RequestBody implements Closeable {
+    private static final RequestBody EMPTY = new RequestBody(new byte[0], null, 0);
+
+    private final byte[] data;      // 内存请求体，溢出到文件时为 null
+    private final File file;        // 临时文件，内存请求体为 null
+    private final long length;
+
+    private RequestBody(byte[] data, File file, long length) {
+        this.data = data;
+        this.file = file;
+        this.length = length;
+    }
+
+    public static RequestBody empty() {
+        return EMPTY;
+    }
+
+    public static RequestBody ofBytes(byte[] data) {
+        return data.length == 0 ? EMPTY : new RequestBody(data, null, data.length);
+    }
+
+    public static RequestBody ofString(String text) {
+        return text == null || text.isEmpty() ? EMPTY : ofBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** 已写入临时文件的请求体，关闭时删除该文件 */
+    static RequestBody ofTempFile(File file, long length) {
+        return new RequestBody(null, file, length);
+    }
+
+    /** 请求体字节数 */
+    public long length() {
+        return length;
+    }
+
+    public boolean inMemory() {
+        return file == null;
+    }
+
+    /**
+     * 以流的方式读取请求体，大请求体应使用这种方式逐段处理
+     */
+    public InputStream openStream() throws IOException {
+        return file == null ? new ByteArrayInputStream(data) : Files.newInputStream(file.toPath());
+    }
+
+    /**
+     * 整个请求体读入字节数组；溢出到文件的请求体会整体读回堆内存，只适合确实需要全部内容的场景
+     */
+    public byte[] toByteArray() {
+        if (file == null) {
+            return data;
+        }
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String asString(Charset charset) {
+        return length == 0 ? "" : new String(toByteArray(), charset);
+    }
+
+    @Override
+    public void close() {
+        if (file != null && file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file == null ? new String(data, StandardCharsets.UTF_8) : "[" + length + " bytes in " + file + "]";
+    }
+}
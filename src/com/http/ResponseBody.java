@@ -0,0 +1,375 @@
+package com.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 响应正文 - 可以是内存中的字节数组、共享的（映射）缓冲区，也可以是直接从文件发送的区间。
+ *
+ * 写出接口按“起始位置”设计，本身不记录发送进度：
+ * 阻塞连接循环调用直到写完，非阻塞连接每次可写时从上次的位置继续。
+ * 持有文件句柄等资源的正文在发送完成（或放弃发送）后必须调用 close()。
+ *
+ * 流式正文（stream()/writer()）在发送时才逐块产生数据，处理器不必先把整个响应放进内存；
+ * 长度未知时以 Transfer-Encoding: chunked 发送，长度已知时仍使用 Content-Length。
+ */
+public abstract class ResponseBody implements Closeable {
+    private static final ResponseBody EMPTY = new Bytes(new byte[0]);
+
+    /** 按需产生数据块，返回 null 表示结束 */
+    public interface ChunkSource {
+        ByteBuffer nextChunk() throws IOException;
+    }
+
+    /** 直接向输出流写正文的回调；阻塞连接上写入的数据会立即以分块形式发出 */
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** 正文字节数，未知时返回 -1（以 chunked 编码发送） */
+    public abstract long length();
+
+    /**
+     * 从 position 开始尽可能多地写入通道（非阻塞通道可能只写出一部分）
+     * @return 本次写出的字节数
+     */
+    public abstract long transferTo(WritableByteChannel channel, long position) throws IOException;
+
+    /** 正文是否已在内存中（可以直接和响应头一起写出） */
+    public boolean inMemory() {
+        return false;
+    }
+
+    /** 内存正文的只读视图，非内存正文返回 null */
+    public ByteBuffer toByteBuffer() {
+        return null;
+    }
+
+    /** 流式正文的数据块来源，非流式正文返回 null（按位置用 transferTo 发送） */
+    public ChunkSource chunks() {
+        return null;
+    }
+
+    /**
+     * 阻塞地把完整正文写出
+     * @param out 输出流（调用前应已 flush 掉之前写入的数据）
+     * @param channel 与 out 对应的套接字通道，可为 null；不为 null 时文件正文走 sendfile 零拷贝
+     */
+    public void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+        WritableByteChannel target = (channel != null) ? channel : Channels.newChannel(out);
+        long position = 0;
+        long length = length();
+        while (position < length) {
+            position += transferTo(target, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // 默认没有需要释放的资源
+    }
+
+    public static ResponseBody empty() {
+        return EMPTY;
+    }
+
+    public static ResponseBody ofBytes(byte[] data) {
+        return (data == null || data.length == 0) ? EMPTY : new Bytes(data);
+    }
+
+    /**
+     * 整个文件作为正文，文件内容不会被读进 Java 堆
+     */
+    public static ResponseBody ofFile(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return new FileRegion(channel, 0, channel.size());
+    }
+
+    /**
+     * 长度未知的流式正文，以 chunked 编码发送
+     */
+    public static ResponseBody stream(ChunkSource source) {
+        return new Stream(-1, source, null);
+    }
+
+    /**
+     * 长度已知的流式正文，以 Content-Length 发送；source 产生的总字节数必须等于 length
+     */
+    public static ResponseBody stream(long length, ChunkSource source) {
+        return new Stream(length, source, null);
+    }
+
+    /**
+     * 由回调写出的正文（长度未知，chunked 发送）。
+     * 阻塞连接上回调直接写 socket，可以边生成边发送；非阻塞的事件循环不能在回调里阻塞，
+     * 会先把回调输出收集到内存再发送，此时需要真正流式的处理器应改用 stream(ChunkSource)。
+     */
+    public static ResponseBody writer(BodyWriter writer) {
+        return new Stream(-1, null, writer);
+    }
+
+    /**
+     * 文件中的一段区间作为正文，同样不经过 Java 堆
+     */
+    public static ResponseBody ofFile(File file, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return new FileRegion(channel, offset, length);
+    }
+
+    /**
+     * 把多个正文依次拼接成一个（例如 multipart/byteranges 的各个部分），关闭时关闭全部部分
+     */
+    public static ResponseBody concat(List<ResponseBody> parts) {
+        return new Composite(new ArrayList<>(parts));
+    }
+
+    /**
+     * 共享缓冲区（如 MappedByteBuffer）作为正文，每次发送都读取它的独立视图，不修改原缓冲区
+     * @param onClose 正文关闭时回调一次，用于释放引用计数，可为 null
+     */
+    public static ResponseBody ofBuffer(ByteBuffer buffer, Runnable onClose) {
+        return new SharedBuffer(buffer, onClose);
+    }
+
+    /** 内存中的正文 */
+    static final class Bytes extends ResponseBody {
+        final byte[] data;
+
+        Bytes(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public boolean inMemory() {
+            return true;
+        }
+
+        @Override
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(data).asReadOnlyBuffer();
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel channel, long position) throws IOException {
+            return channel.write(ByteBuffer.wrap(data, (int) position, data.length - (int) position));
+        }
+
+        @Override
+        public void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            out.write(data);
+        }
+    }
+
+    /** 共享的只读缓冲区，发送时直接从缓冲区写到通道 */
+    static final class SharedBuffer extends ResponseBody {
+        private final ByteBuffer buffer;
+        private Runnable onClose;
+
+        SharedBuffer(ByteBuffer buffer, Runnable onClose) {
+            this.buffer = buffer;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public long length() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel channel, long position) throws IOException {
+            ByteBuffer view = buffer.duplicate();
+            view.position(buffer.position() + (int) position);
+            return channel.write(view);
+        }
+
+        @Override
+        public void close() {
+            Runnable r = onClose;
+            onClose = null;
+            if (r != null) {
+                r.run();
+            }
+        }
+    }
+
+    /** 流式正文：数据来自 ChunkSource 或 BodyWriter，只能发送一次 */
+    static final class Stream extends ResponseBody {
+        private final long length;
+        private final ChunkSource source;
+        private final BodyWriter writer;
+
+        Stream(long length, ChunkSource source, BodyWriter writer) {
+            this.length = length;
+            this.source = source;
+            this.writer = writer;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel channel, long position) {
+            throw new UnsupportedOperationException("Streaming body must be sent via writeTo() or chunks()");
+        }
+
+        @Override
+        public ChunkSource chunks() {
+            if (source != null) {
+                return source;
+            }
+            // 回调式正文：先收集到内存，作为一个数据块返回
+            return new ChunkSource() {
+                private boolean done = false;
+
+                @Override
+                public ByteBuffer nextChunk() throws IOException {
+                    if (done) {
+                        return null;
+                    }
+                    done = true;
+                    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                    writer.writeTo(buf);
+                    return ByteBuffer.wrap(buf.toByteArray());
+                }
+            };
+        }
+
+        /**
+         * 阻塞写出：out 已由调用方按需要包装成 chunked 流，这里只写原始数据。
+         * 每写完一个数据块就 flush，让客户端尽早收到数据
+         */
+        @Override
+        public void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            if (writer != null) {
+                writer.writeTo(out);
+                return;
+            }
+            byte[] scratch = null;
+            ByteBuffer chunk;
+            while ((chunk = source.nextChunk()) != null) {
+                if (!chunk.hasRemaining()) {
+                    continue;
+                }
+                if (chunk.hasArray()) {
+                    out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                } else {
+                    if (scratch == null) {
+                        scratch = new byte[8192];
+                    }
+                    while (chunk.hasRemaining()) {
+                        int n = Math.min(scratch.length, chunk.remaining());
+                        chunk.get(scratch, 0, n);
+                        out.write(scratch, 0, n);
+                    }
+                }
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (source instanceof Closeable) {
+                ((Closeable) source).close();
+            }
+        }
+    }
+
+    /** 依次发送的多个正文 */
+    static final class Composite extends ResponseBody {
+        private final List<ResponseBody> parts;
+        private final long length;
+
+        Composite(List<ResponseBody> parts) {
+            this.parts = parts;
+            long total = 0;
+            for (ResponseBody p : parts) {
+                total += p.length();
+            }
+            this.length = total;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel channel, long position) throws IOException {
+            // 找到 position 所在的部分，只写这一部分，剩余的留给下一次调用
+            long base = 0;
+            for (ResponseBody p : parts) {
+                long len = p.length();
+                if (position < base + len) {
+                    return p.transferTo(channel, position - base);
+                }
+                base += len;
+            }
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException first = null;
+            for (ResponseBody p : parts) {
+                try {
+                    p.close();
+                } catch (IOException e) {
+                    if (first == null) first = e;
+                }
+            }
+            if (first != null) {
+                throw first;
+            }
+        }
+    }
+
+    /** 文件中的一段区间，用 FileChannel.transferTo 发送（Linux 上即 sendfile） */
+    static final class FileRegion extends ResponseBody {
+        private final FileChannel file;
+        private final long offset;
+        private final long length;
+
+        FileRegion(FileChannel file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel channel, long position) throws IOException {
+            long n = file.transferTo(offset + position, length - position, channel);
+            if (n == 0 && file.size() < offset + length) {
+                // 文件在发送过程中被截断，继续循环只会空转
+                throw new IOException("File truncated while sending");
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 响应头编码 - 状态行和常见头名都是预先编码好的字节，头的值逐字符直接写进 ByteBuffer，
+ * 数字直接写十进制位，整个过程不经过 StringBuilder/String/getBytes。
+ *
+ * 空间不足时抛出 BufferOverflowException，由调用方换更大的缓冲区重试。
+ */
+final class ResponseEncoder {
+    static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] COLON_SPACE = {':', ' '};
+    private static final byte[] HTTP_11 = "HTTP/1.1 ".getBytes(StandardCharsets.US_ASCII);
+    private static final int SCRATCH_SIZE = 8 * 1024;
+
+    // 状态码 -> "HTTP/1.1 200 OK\r\n"；表里没有的状态码现场编码
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    // 头名 -> "Name: "
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+    static final byte[] CONTENT_LENGTH = name("Content-Length");
+    static final byte[] CHUNKED = "Transfer-Encoding: chunked\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] SERVER = "com: SimpleJavaHttpServer/1.0\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (String n : new String[]{"Content-Type", "Connection", "Date", "ETag", "Last-Modified", "Location",
+                "Vary", "Content-Encoding", "Accept-Ranges", "Content-Range", "Allow", "Cache-Control",
+                "Keep-Alive", "Retry-After", "Transfer-Encoding", "com"}) {
+            HEADER_NAMES.put(n, name(n));
+        }
+    }
+
+    // 每个线程一个暂存缓冲区，用于需要临时编码响应头的场景（阻塞写出、headerBytes()）
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(SCRATCH_SIZE));
+
+    private ResponseEncoder() {
+    }
+
+    private static byte[] name(String n) {
+        return (n + ": ").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** 注册状态码的状态行，由 HttpResponse 初始化原因短语表时调用 */
+    static void registerStatus(int code, String reason) {
+        if (code >= 0 && code < STATUS_LINES.length) {
+            STATUS_LINES[code] = ("HTTP/1.1 " + code + " " + reason + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    static void putStatusLine(ByteBuffer buf, int code, String reason) {
+        byte[] line = (code >= 0 && code < STATUS_LINES.length) ? STATUS_LINES[code] : null;
+        if (line != null) {
+            buf.put(line);
+            return;
+        }
+        buf.put(HTTP_11);
+        putLong(buf, code);
+        buf.put((byte) ' ');
+        putString(buf, reason);
+        buf.put(CRLF);
+    }
+
+    static void putHeader(ByteBuffer buf, String name, String value) {
+        byte[] n = HEADER_NAMES.get(name);
+        if (n != null) {
+            buf.put(n);
+        } else {
+            putString(buf, name);
+            buf.put(COLON_SPACE);
+        }
+        putString(buf, value);
+        buf.put(CRLF);
+    }
+
+    /** 按 UTF-8 直接编码字符串（响应头绝大多数是 ASCII，只走第一个分支） */
+    static void putString(ByteBuffer buf, String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buf.put((byte) '?');    // 不成对的代理字符
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /** 写非负整数的十进制表示 */
+    static void putLong(ByteBuffer buf, long v) {
+        if (v == 0) {
+            buf.put((byte) '0');
+            return;
+        }
+        int digits = 0;
+        for (long t = v; t > 0; t /= 10) {
+            digits++;
+        }
+        int end = buf.position() + digits;
+        if (end > buf.limit()) {
+            throw new java.nio.BufferOverflowException();
+        }
+        for (int i = end - 1; v > 0; i--, v /= 10) {
+            buf.put(i, (byte) ('0' + (v % 10)));
+        }
+        buf.position(end);
+    }
+
+    /**
+     * 把响应头编码到当前线程的暂存缓冲区
+     * @return 读模式的缓冲区，下次在同一线程上调用前有效；响应头超过暂存区大小时返回临时分配的缓冲区
+     */
+    static ByteBuffer encodeToScratch(HttpResponse response) {
+        ByteBuffer buf = SCRATCH.get();
+        while (true) {
+            buf.clear();
+            if (response.encodeHeaders(buf)) {
+                buf.flip();
+                return buf;
+            }
+            buf = ByteBuffer.allocate(buf.capacity() * 2);
+        }
+    }
+}
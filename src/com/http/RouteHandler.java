@@ -0,0 +1,11 @@
+package com.http;
+
+import java.io.IOException;
+
+/**
+ * 路由处理器 - 注册到 Router 上，处理匹配到的请求
+ */
+@FunctionalInterface
+public interface RouteHandler {
+    HttpResponse handle(HttpRequestParser.HttpRequest request) throws IOException;
+}
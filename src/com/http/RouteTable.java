@@ -0,0 +1,214 @@
+package com.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 路由表 - 按方法和路径模式注册处理器。
+ *
+ * 不含参数的路径放在精确匹配的哈希表里，命中时只做一次查找；
+ * 含 {name} 参数或以 /* 结尾的前缀模式编译进按路径段组织的前缀树，
+ * 匹配顺序为：字面段 > 参数段 > 通配前缀，字面段走不通时回溯；通配部分的剩余路径记为参数 "*"。
+ * 查找时直接在请求路径上按区间比较字面段，不切分子串；参数表只在参数或通配实际绑定时才创建。
+ * 路径匹配但方法不匹配时返回带有 Allow 列表的结果，由调用方生成 405。
+ *
+ * 路由应在服务器启动前注册；对已有模式重新注册处理器（例如替换固定响应）在运行时也是安全的。
+ */
+public class RouteTable {
+    /** 一个路径上按方法区分的处理器 */
+    static final class Methods {
+        private final Map<String, RouteHandler> handlers = new ConcurrentHashMap<>();
+        private volatile String allow = "";     // 预先拼好的 Allow 头
+
+        void put(String method, RouteHandler handler) {
+            handlers.put(method, handler);
+            List<String> names = new ArrayList<>(handlers.keySet());
+            Collections.sort(names);
+            allow = String.join(", ", names);
+        }
+
+        RouteHandler get(String method) {
+            return handlers.get(method);
+        }
+
+        String allow() {
+            return allow;
+        }
+    }
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** 前缀树节点，每层对应一个路径段 */
+    private static final class Node {
+        final String segment;   // 作为字面子节点时对应的路径段
+        volatile Node[] literals = NO_CHILDREN;    // 字面子节点，数量很少，顺序比较比哈希（需要先切出子串）更省
+        Node param;             // {name} 段
+        String paramName;
+        Methods methods;        // 路径恰好到此结束时的处理器
+        Methods wildcard;       // /* 前缀：匹配此后任意剩余路径
+
+        Node(String segment) {
+            this.segment = segment;
+        }
+
+        /** 查找与 path[start, end) 相同的字面子节点 */
+        Node literal(String path, int start, int end) {
+            int length = end - start;
+            for (Node child : literals) {
+                if (child.segment.length() == length && path.regionMatches(start, child.segment, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /** 注册时调用（已持有 RouteTable 的锁）：整体替换数组，并发的查找看到的总是完整的数组 */
+        Node addLiteral(String seg) {
+            for (Node child : literals) {
+                if (child.segment.equals(seg)) {
+                    return child;
+                }
+            }
+            Node child = new Node(seg);
+            Node[] grown = Arrays.copyOf(literals, literals.length + 1);
+            grown[literals.length] = child;
+            literals = grown;
+            return child;
+        }
+    }
+
+    /** 匹配结果：handler 为 null 且 allow 非 null 表示方法不允许 */
+    public static final class Match {
+        public final RouteHandler handler;
+        public final Map<String, String> params;
+        public final String allow;
+
+        Match(RouteHandler handler, Map<String, String> params, String allow) {
+            this.handler = handler;
+            this.params = params;
+            this.allow = allow;
+        }
+    }
+
+    private final Map<String, Methods> exact = new ConcurrentHashMap<>();
+    private final Node root = new Node("");
+
+    /**
+     * 注册处理器
+     * @param method 请求方法，例如 GET、POST
+     * @param pattern 路径模式：/login、/users/{id}、/static/*（/* 匹配根下任意路径）
+     */
+    public synchronized void add(String method, String pattern, RouteHandler handler) {
+        if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+            throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+        }
+        if (pattern.indexOf('{') < 0 && !pattern.endsWith("/*")) {
+            exact.computeIfAbsent(pattern, k -> new Methods()).put(method, handler);
+            return;
+        }
+
+        Node node = root;
+        String[] segments = pattern.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String seg = segments[i];
+            if ("*".equals(seg)) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("'*' is only allowed at the end: " + pattern);
+                }
+                if (node.wildcard == null) {
+                    node.wildcard = new Methods();
+                }
+                node.wildcard.put(method, handler);
+                return;
+            }
+            if (seg.startsWith("{") && seg.endsWith("}")) {
+                String name = seg.substring(1, seg.length() - 1);
+                if (node.param == null) {
+                    node.param = new Node(seg);
+                    node.paramName = name;
+                } else if (!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException("Conflicting parameter names {" + node.paramName
+                            + "} and {" + name + "} in " + pattern);
+                }
+                node = node.param;
+            } else {
+                node = node.addLiteral(seg);
+            }
+        }
+        if (node.methods == null) {
+            node.methods = new Methods();
+        }
+        node.methods.put(method, handler);
+    }
+
+    /**
+     * 查找处理器
+     * @param path 不含查询串的请求路径
+     * @return 匹配结果；没有任何模式匹配该路径时返回 null
+     */
+    public Match find(String method, String path) {
+        Methods m = exact.get(path);
+        if (m != null) {
+            return select(m, method, Collections.emptyMap());
+        }
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            return null;
+        }
+        return search(root, method, path, 1);
+    }
+
+    private static Match select(Methods m, String method, Map<String, String> params) {
+        RouteHandler h = m.get(method);
+        return new Match(h, params, h == null ? m.allow() : null);
+    }
+
+    /**
+     * 从 path[start] 开始匹配剩余路径段。参数在匹配成功、逐层返回时才加入结果，
+     * 走不通的分支不产生任何分配
+     */
+    private static Match search(Node node, String method, String path, int start) {
+        if (start > path.length()) {
+            return node.methods == null ? null : select(node.methods, method, Collections.emptyMap());
+        }
+        int slash = path.indexOf('/', start);
+        int end = slash < 0 ? path.length() : slash;
+        int next = end + 1;
+
+        Node child = node.literal(path, start, end);
+        if (child != null) {
+            Match m = search(child, method, path, next);
+            if (m != null) {
+                return m;
+            }
+        }
+        if (node.param != null && end > start) {
+            Match m = search(node.param, method, path, next);
+            if (m != null) {
+                return bind(m, node.paramName, path.substring(start, end));
+            }
+        }
+        if (node.wildcard != null) {
+            // 通配部分的剩余路径
+            return select(node.wildcard, method, Collections.singletonMap("*", path.substring(start)));
+        }
+        return null;
+    }
+
+    /** 把外层参数加到内层匹配结果的前面，保持参数按路径中的顺序排列 */
+    private static Match bind(Match inner, String name, String value) {
+        Map<String, String> params;
+        if (inner.params.isEmpty()) {
+            params = Collections.singletonMap(name, value);
+        } else {
+            params = new LinkedHashMap<>(inner.params.size() * 2 + 2);
+            params.put(name, value);
+            params.putAll(inner.params);
+        }
+        return new Match(inner.handler, params, inner.allow);
+    }
+}
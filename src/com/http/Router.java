@@ -3,26 +3,183 @@ package com.http; /**
  */
 
 import com.controller.UserController;
+import com.server.Metrics;
+import com.server.StaticFileCache;
 import com.server.StaticFileHandler;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class Router {
+    private static final String LATENCY = "http_request_duration_seconds";
+    private static final String LATENCY_HELP = "Time spent routing and handling a request, excluding the write to the client";
+
     private final UserController userController;
     private final StaticFileHandler staticFileHandler;
+    private final Compression compression;
+    private final RouteTable routes = new RouteTable();
+    // 没有匹配到路由（404/405）的请求共用一个直方图，避免按任意路径产生大量标签组合
+    private final Metrics.LatencyHistogram unmatchedLatency =
+            Metrics.get().histogram(LATENCY, LATENCY_HELP, Metrics.label("method", "") + "," + Metrics.label("route", ""));
+
+    /** 注册时给处理器附上该路由的延迟直方图，请求时不需要再按方法和模式查找 */
+    private static final class TimedHandler implements RouteHandler {
+        final RouteHandler handler;
+        final AsyncRouteHandler async;  // 异步处理器，同步调用时等待它的结果
+        final Metrics.LatencyHistogram latency;
+
+        TimedHandler(RouteHandler handler, AsyncRouteHandler async, Metrics.LatencyHistogram latency) {
+            this.handler = handler;
+            this.async = async;
+            this.latency = latency;
+        }
+
+        @Override
+        public HttpResponse handle(HttpRequestParser.HttpRequest request) throws IOException {
+            if (async == null) {
+                return handler.handle(request);
+            }
+            try {
+                return async.handle(request).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
+        }
+    }
 
     public Router() {
         this.userController = new UserController();
-        this.staticFileHandler = new StaticFileHandler(new File("resources"));
+        this.compression = new Compression();
+        this.staticFileHandler = new StaticFileHandler(new File("resources"), new StaticFileCache(), compression);
+        registerCacheMetrics(staticFileHandler.getCache());
+
+        // 主页
+        constant("/", new HttpResponse()
+                .status(200)
+                .contentType("text/html; charset=utf-8")
+                .body(getHomePage()));
+        // 测试路由，返回 301 永久重定向到 /
+        constant("/moved", new HttpResponse()
+                .status(301)
+                .header("Location", "/")
+                .body("<html><body>Moved permanently to <a href=\"/\">/</a></body></html>"));
+
+        // Prometheus 抓取入口
+        get("/metrics", request -> new HttpResponse()
+                .status(200)
+                .contentType("text/plain; version=0.0.4; charset=utf-8")
+                .header("Cache-Control", "no-store")
+                .body(Metrics.get().scrape()));
+
+        get("/bug", request -> {
+            throw new IOException("故意制造异常");
+        });
+        // 口令哈希在计算线程池上执行，不占用 I/O 线程
+        addAsync("POST", "/register", userController::handleRegister);
+        addAsync("POST", "/login", userController::handleLogin);
+
+        // 其余路径尝试作为静态文件处理
+        get("/*", this::serveStatic);
+    }
+
+    /**
+     * 静态文件缓存的命中、淘汰和容量：命中率低或淘汰频繁说明缓存容量小于热点文件的总大小
+     */
+    private static void registerCacheMetrics(StaticFileCache cache) {
+        Metrics.get().counter("http_static_cache_hits_total", "Static file requests served from the cache", cache::getHits);
+        Metrics.get().counter("http_static_cache_misses_total", "Static file requests that had to look up the file",
+                cache::getMisses);
+        Metrics.get().counter("http_static_cache_evictions_total", "Static file cache entries evicted to stay within limits",
+                cache::getEvictions);
+        Metrics.get().counter("http_static_cache_invalidations_total",
+                "Static file cache entries dropped because the file changed", cache::getInvalidations);
+        Metrics.get().gauge("http_static_cache_entries", "Files in the static file cache", cache::size);
+        Metrics.get().gauge("http_static_cache_bytes", "Heap bytes held by the static file cache", cache::getTotalBytes);
+        Metrics.get().gauge("http_static_cache_mapped_bytes", "Bytes of files memory-mapped by the static file cache",
+                cache::getMappedBytes);
+    }
+
+    /**
+     * 注册处理器
+     * @param pattern 路径模式，例如 /login、/users/{id}、/static/*
+     */
+    public Router add(String method, String pattern, RouteHandler handler) {
+        routes.add(method, pattern, new TimedHandler(handler, null, latency(method, pattern)));
+        return this;
+    }
+
+    /**
+     * 注册异步处理器：routeAsync() 直接返回它的结果，route() 等待它完成
+     */
+    public Router addAsync(String method, String pattern, AsyncRouteHandler handler) {
+        routes.add(method, pattern, new TimedHandler(null, handler, latency(method, pattern)));
+        return this;
+    }
+
+    private static Metrics.LatencyHistogram latency(String method, String pattern) {
+        return Metrics.get().histogram(LATENCY, LATENCY_HELP,
+                Metrics.label("method", method) + "," + Metrics.label("route", pattern));
+    }
+
+    /**
+     * 注册 GET 路由，同时注册 HEAD：HEAD 请求执行同一个处理器，route() 发送前去掉正文
+     */
+    public Router get(String pattern, RouteHandler handler) {
+        return add("GET", pattern, handler).add("HEAD", pattern, handler);
+    }
+
+    public Router post(String pattern, RouteHandler handler) {
+        return add("POST", pattern, handler);
+    }
+
+    /**
+     * 注册内容固定（或很少变化）的 GET/HEAD 路由，响应立即预编码；对同一路径重复注册即替换内容
+     * @param path 不含查询参数的请求路径
+     * @param template 响应模板，正文必须在内存中；Connection 和 Date 头由每次请求决定
+     */
+    public Router constant(String path, HttpResponse template) {
+        ConstantResponse response = new ConstantResponse(template, compression);
+        add("GET", path, response::respond);
+        return add("HEAD", path, response::respond);
     }
 
     /**
      * 路由分发入口
      * @param request HTTP请求对象
-     * @return HTTP响应对象
+     * @return HTTP响应对象（文本类响应按 Accept-Encoding 压缩）
      */
     public HttpResponse route(HttpRequestParser.HttpRequest request) throws IOException {
+        // 路由匹配（路径已在解析请求时去掉查询串）
+        return route(request, request == null ? null : routes.find(request.getMethod(), request.getPath()));
+    }
+
+    /**
+     * 异步路由分发入口：异步处理器的响应稍后完成，其余路由同步处理后返回已完成的结果
+     * （延迟直方图包含在计算线程上排队的时间）
+     */
+    public CompletableFuture<HttpResponse> routeAsync(HttpRequestParser.HttpRequest request) throws IOException {
+        RouteTable.Match match = request == null ? null : routes.find(request.getMethod(), request.getPath());
+        if (match == null || match.handler == null || ((TimedHandler) match.handler).async == null) {
+            return CompletableFuture.completedFuture(route(request, match));
+        }
+        TimedHandler handler = (TimedHandler) match.handler;
+        long start = System.nanoTime();
+        request.pathParams(match.params);
+        return handler.async.handle(request)
+                .thenApply(response -> compression.apply(request, response.keepAlive(request.isKeepAlive())))
+                .whenComplete((response, e) -> handler.latency.record(System.nanoTime() - start));
+    }
+
+    private HttpResponse route(HttpRequestParser.HttpRequest request, RouteTable.Match match) throws IOException {
         if (request == null) {
             return new HttpResponse()
                     .status(400)
@@ -30,63 +187,57 @@ public class Router {
                     .body("Bad Request");
         }
 
+        long start = System.nanoTime();
+        try {
+            HttpResponse response = compression.apply(request, dispatch(request, match));
+            // HEAD 与 GET 的响应头相同（包括压缩后的长度），但不发送正文，否则长连接上的下一个响应会错位
+            return "HEAD".equals(request.getMethod()) ? response.withoutBody() : response;
+        } finally {
+            Metrics.LatencyHistogram latency = (match != null && match.handler != null)
+                    ? ((TimedHandler) match.handler).latency : unmatchedLatency;
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    private HttpResponse dispatch(HttpRequestParser.HttpRequest request, RouteTable.Match match) throws IOException {
         String path = request.getPath();
-        String method = request.getMethod();
-
-        System.out.println("[Server.Router] " + method + " " + path);
-
-        // 路由匹配
-        switch (path) {
-            case "/bug":
-                throw new IOException("故意制造异常");
-
-            case "/register":
-                return userController.handleRegister(request);
-
-            case "/login":
-                return userController.handleLogin(request);
-
-            case "/":
-                // 主页
-                return new HttpResponse()
-                        .status(200)
-                        .contentType("text/html; charset=utf-8")
-                        .body(getHomePage())
-                        .keepAlive(request.isKeepAlive());
-
-            case "/moved": // <-- 新增测试路由，返回 301 永久重定向到 /
-                return new HttpResponse()
-                        .status(301)
-                        .header("Location", "/")
-                        .body("<html><body>Moved permanently to <a href=\"/\">/</a></body></html>")
-                        .keepAlive(request.isKeepAlive());
-
-            default:
-                // 尝试作为静态文件处理（去掉查询参数）
-                String pathNoQuery = path.split("\\?", 2)[0];
-                try {
-                    // Server.StaticFileHandler 负责安全校验（路径穿越检查）、ETag/If-None-Match、Last-Modified 等
-                    HttpResponse staticResp = staticFileHandler.handle(new HttpRequestParser.HttpRequest(
-                            request.getMethod(), pathNoQuery, request.getVersion(), request.getHeaders(), request.getBody()));
-                    // 保持与请求相同的 keep-alive 策略
-                    staticResp.keepAlive(request.isKeepAlive());
-                    return staticResp;
-                } catch (IOException e) {
-                    // 文件读取或 IO 问题 -> 500
-                    e.printStackTrace();
-                    return new HttpResponse()
-                            .status(500)
-                            .contentType("text/plain; charset=utf-8")
-                            .body("Internal Server Error")
-                            .keepAlive(request.isKeepAlive());
-                } catch (Exception e) {
-                    // 其它异常或 Server.StaticFileHandler 未命中 -> 404 Not Found
-                    return new HttpResponse()
-                            .status(404)
-                            .contentType("text/html; charset=utf-8")
-                            .body("<html><body><h1>404 Not Found</h1><p>路径 " + path + " 不存在</p></body></html>")
-                            .keepAlive(request.isKeepAlive());
-                }
+        if (match == null) {
+            return new HttpResponse()
+                    .status(404)
+                    .contentType("text/html; charset=utf-8")
+                    .body("<html><body><h1>404 Not Found</h1><p>路径 " + path + " 不存在</p></body></html>")
+                    .keepAlive(request.isKeepAlive());
+        }
+        if (match.handler == null) {
+            return new HttpResponse()
+                    .status(405)
+                    .header("Allow", match.allow)
+                    .contentType("text/plain; charset=utf-8")
+                    .body("Method Not Allowed")
+                    .keepAlive(request.isKeepAlive());
+        }
+        request.pathParams(match.params);
+        return match.handler.handle(request).keepAlive(request.isKeepAlive());
+    }
+
+    private HttpResponse serveStatic(HttpRequestParser.HttpRequest request) {
+        String path = request.getPath();
+        try {
+            // Server.StaticFileHandler 负责安全校验（路径穿越检查）、ETag/If-None-Match、Last-Modified 等
+            return staticFileHandler.handle(request);
+        } catch (IOException e) {
+            // 文件读取或 IO 问题 -> 500
+            e.printStackTrace();
+            return new HttpResponse()
+                    .status(500)
+                    .contentType("text/plain; charset=utf-8")
+                    .body("Internal Server Error");
+        } catch (Exception e) {
+            // 其它异常或 Server.StaticFileHandler 未命中 -> 404 Not Found
+            return new HttpResponse()
+                    .status(404)
+                    .contentType("text/html; charset=utf-8")
+                    .body("<html><body><h1>404 Not Found</h1><p>路径 " + path + " 不存在</p></body></html>");
         }
     }
 
@@ -0,0 +1,86 @@
+package com.model;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * 口令哈希 - PBKDF2WithHmacSHA256，每个口令使用独立的随机盐。
+ * 迭代次数决定每次计算的 CPU 开销，保存在哈希结果里：调高成本之后，旧口令仍按原来的次数验证。
+ */
+public final class PasswordHasher {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** 一个口令的哈希结果：迭代次数、盐和派生出的密钥 */
+    public static final class Hash {
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        Hash(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+    }
+
+    private final int iterations;
+
+    /**
+     * @param iterations PBKDF2 迭代次数，越大越慢，暴力破解的代价也越高
+     */
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * 按系统属性创建：-Dhttp.pbkdf2Iterations（默认 100000）
+     */
+    public static PasswordHasher defaults() {
+        return new PasswordHasher(Integer.getInteger("http.pbkdf2Iterations", 100_000));
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /** 用新的随机盐计算口令的哈希 */
+    public Hash hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return new Hash(iterations, salt, derive(password, salt, iterations));
+    }
+
+    /** 验证口令，比较耗时与哈希在第几个字节不同无关 */
+    public boolean verify(String password, Hash stored) {
+        return MessageDigest.isEqual(derive(password, stored.salt, stored.iterations), stored.hash);
+    }
+
+    /** 哈希的迭代次数低于当前设置（成本调高之前保存的），应在下次验证通过时重新计算 */
+    public boolean needsRehash(Hash stored) {
+        return stored.iterations < iterations;
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
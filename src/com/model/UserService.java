@@ -1,29 +1,80 @@
 package com.model;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 
 /**
  * 用户服务类 - 负责用户注册、登录的业务逻辑
+ *
+ * 口令只保存加盐的 PBKDF2 哈希，register() 和需要验证口令的 login() 都是 CPU 密集的操作，
+ * 调用方应放到专门的计算线程上执行。近期验证通过的凭据缓存一小段时间，
+ * 同一用户连续登录时不必重复计算哈希；缓存里只有用进程内随机密钥计算的 HMAC，不保存口令本身。
  */
 public class UserService {
+    private static final int CACHE_CAPACITY = 10_000;
+
+    /** 一条验证通过的凭据 */
+    private static final class Verified {
+        final byte[] tag;
+        final long expiresAt;
+
+        Verified(byte[] tag, long expiresAt) {
+            this.tag = tag;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     // 使用ConcurrentHashMap存储用户，线程安全
-    // Key: 用户名, Value: 密码
-    private final Map<String, String> users = new ConcurrentHashMap<>();
+    // Key: 用户名, Value: 口令哈希
+    private final Map<String, PasswordHasher.Hash> users = new ConcurrentHashMap<>();
+    private final PasswordHasher hasher;
+    private final Map<String, Verified> verified = new ConcurrentHashMap<>();
+    private final long cacheTtlNanos;
+    private final ThreadLocal<Mac> cacheMac;
 
     /**
-     * 用户注册
+     * 按系统属性创建：-Dhttp.pbkdf2Iterations（见 PasswordHasher）、-Dhttp.authCacheTtlMillis（默认 30000，0 表示不缓存）
+     */
+    public UserService() {
+        this(PasswordHasher.defaults(), Long.getLong("http.authCacheTtlMillis", 30_000));
+    }
+
+    /**
+     * @param cacheTtlMillis 验证通过的凭据缓存多久，0 表示不缓存
+     */
+    public UserService(PasswordHasher hasher, long cacheTtlMillis) {
+        this.hasher = hasher;
+        this.cacheTtlNanos = cacheTtlMillis * 1_000_000L;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec spec = new SecretKeySpec(key, "HmacSHA256");
+        this.cacheMac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(spec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+    }
+
+    /**
+     * 用户注册（计算哈希，CPU 密集）
      * @param username 用户名
      * @param password 密码
      * @return 注册结果信息
      */
     public String register(String username, String password) {
-        // 参数校验
-        if (username == null || username.trim().isEmpty()) {
-            return "用户名不能为空";
-        }
-        if (password == null || password.trim().isEmpty()) {
-            return "密码不能为空";
+        String invalid = validate(username, password);
+        if (invalid != null) {
+            return invalid;
         }
 
         // 检查用户是否已存在
@@ -31,44 +82,104 @@ public class UserService {
             return "用户名已存在";
         }
 
-        // 注册成功
-        users.put(username, password);
+        // 计算哈希期间可能有同名用户注册成功，以 putIfAbsent 的结果为准
+        if (users.putIfAbsent(username, hasher.hash(password)) != null) {
+            return "用户名已存在";
+        }
         return "注册成功";
     }
 
     /**
-     * 用户登录
+     * 用户登录（缓存未命中时计算哈希，CPU 密集）
      * @param username 用户名
      * @param password 密码
      * @return 登录结果信息
      */
     public String login(String username, String password) {
-        // 参数校验
-        if (username == null || username.trim().isEmpty()) {
-            return "用户名不能为空";
+        String result = loginWithoutHashing(username, password);
+        if (result != null) {
+            return result;
         }
-        if (password == null || password.trim().isEmpty()) {
-            return "密码不能为空";
+
+        // 验证密码
+        PasswordHasher.Hash stored = users.get(username);
+        if (!hasher.verify(password, stored)) {
+            return "密码错误";
+        }
+        if (hasher.needsRehash(stored)) {
+            // 迭代次数调高之后，用户下次登录时按新的成本重新计算
+            users.replace(username, stored, hasher.hash(password));
+        }
+        remember(username, password);
+        return "登录成功";
+    }
+
+    /**
+     * 不需要计算哈希就能得出结果时（参数错误、用户不存在、凭据近期验证通过）直接返回登录结果，
+     * 否则返回 null，调用方再把 login() 交给计算线程执行
+     */
+    public String loginWithoutHashing(String username, String password) {
+        String invalid = validate(username, password);
+        if (invalid != null) {
+            return invalid;
         }
 
         // 检查用户是否存在
         if (!users.containsKey(username)) {
             return "用户不存在";
         }
-
-        // 验证密码
-        String storedPassword = users.get(username);
-        if (storedPassword. equals(password)) {
-            return "登录成功";
-        } else {
-            return "密码错误";
-        }
+        return isRecentlyVerified(username, password) ? "登录成功" : null;
     }
 
     /**
      * 获取当前用户数量（可选，用于调试）
      */
     public int getUserCount() {
-        return users. size();
+        return users.size();
+    }
+
+    private static String validate(String username, String password) {
+        // 参数校验
+        if (username == null || username.trim().isEmpty()) {
+            return "用户名不能为空";
+        }
+        if (password == null || password.trim().isEmpty()) {
+            return "密码不能为空";
+        }
+        return null;
+    }
+
+    private boolean isRecentlyVerified(String username, String password) {
+        Verified v = verified.get(username);
+        if (v == null) {
+            return false;
+        }
+        if (System.nanoTime() - v.expiresAt >= 0) {
+            verified.remove(username, v);
+            return false;
+        }
+        return MessageDigest.isEqual(v.tag, tag(username, password));
+    }
+
+    /** 记住验证通过的凭据；缓存已满时先清除过期的，仍然满就不再缓存 */
+    private void remember(String username, String password) {
+        if (cacheTtlNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (verified.size() >= CACHE_CAPACITY) {
+            verified.values().removeIf(v -> now - v.expiresAt >= 0);
+            if (verified.size() >= CACHE_CAPACITY) {
+                return;
+            }
+        }
+        verified.put(username, new Verified(tag(username, password), now + cacheTtlNanos));
+    }
+
+    private byte[] tag(String username, String password) {
+        Mac mac = cacheMac.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,445 @@
+package com.server;
+
+import com.http.HttpRequestParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步访问日志 - 请求线程只把字段写进无锁环形缓冲区的预分配槽位（不格式化、不加锁、不做 I/O），
+ * 后台线程成批取出、按格式拼成文本写入日志文件，文件超过大小上限时滚动。
+ *
+ * 缓冲区满时直接丢弃新记录并计数，请求线程永远不会因为日志阻塞。
+ * 格式占位符：%t 时间、%a 客户端地址、%m 方法、%U 请求目标、%H 协议版本、%r 请求行、
+ * %s 状态码、%b 正文字节数、%D 处理耗时（微秒）、%% 百分号。
+ * 调试级别（-Dhttp.debug=true 或 debug(true)）额外记录连接建立/关闭和完整请求内容。
+ */
+public class AccessLog {
+    public static final String DEFAULT_FORMAT = "%a [%t] \"%r\" %s %b %Dus";
+    private static final int BATCH = 512;
+
+    private static volatile AccessLog defaultLog;
+
+    /** 环形缓冲区中的一个槽位，seq 用于生产者和消费者之间交接 */
+    private static final class Entry {
+        volatile long seq;
+        long timeMillis;
+        InetAddress remote;
+        String method;
+        String target;
+        String version;
+        int status;
+        long bytes;
+        long durationNanos;
+        String message;     // 调试信息，非 null 时忽略其他字段
+    }
+
+    private final File file;                // null 表示输出到标准输出
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();  // 下一个要写入的序号（多个生产者竞争）
+    private long head = 0;                             // 下一个要读取的序号（只有写日志线程访问）
+
+    private volatile Object[] format = compile(DEFAULT_FORMAT);
+    private volatile double sampleRate = 1.0;
+    private volatile boolean debug = Boolean.getBoolean("http.debug");
+    private long maxFileBytes = 64L * 1024 * 1024;
+    private int maxFiles = 5;
+
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+
+    private Thread writerThread;
+    private volatile boolean running = false;
+    private Writer out;
+    private long fileBytes;
+    private final DateTimeFormatter timeFormat =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+    private long lastSecond = -1;
+    private String lastTime;
+
+    /**
+     * @param file 日志文件，null 表示输出到标准输出
+     * @param capacity 环形缓冲区槽位数，向上取整为 2 的幂
+     */
+    public AccessLog(File file, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.file = file;
+        this.ring = new Entry[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Entry();
+            ring[i].seq = i;
+        }
+    }
+
+    /**
+     * 服务器未指定时共用的日志：logs/access.log，第一次使用时启动写日志线程
+     */
+    public static AccessLog defaultLog() {
+        AccessLog log = defaultLog;
+        if (log == null) {
+            synchronized (AccessLog.class) {
+                log = defaultLog;
+                if (log == null) {
+                    log = new AccessLog(new File("logs", "access.log"), 8192).start();
+                    defaultLog = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    /** 日志格式，见类说明中的占位符 */
+    public AccessLog format(String pattern) {
+        this.format = compile(pattern);
+        return this;
+    }
+
+    /** 采样比例（0~1），5xx 响应总是记录 */
+    public AccessLog sampleRate(double rate) {
+        this.sampleRate = rate;
+        return this;
+    }
+
+    /** 是否记录调试信息（连接事件和完整请求内容） */
+    public AccessLog debug(boolean enabled) {
+        this.debug = enabled;
+        return this;
+    }
+
+    /** 单个日志文件的大小上限，超过后滚动为 access.log.1、access.log.2 …；需在 start() 前设置 */
+    public AccessLog maxFileBytes(long bytes) {
+        this.maxFileBytes = bytes;
+        return this;
+    }
+
+    /** 保留的历史文件个数；需在 start() 前设置 */
+    public AccessLog maxFiles(int count) {
+        this.maxFiles = count;
+        return this;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public synchronized AccessLog start() {
+        if (running) {
+            return this;
+        }
+        running = true;
+        writerThread = new Thread(this::drainLoop, "access-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        return this;
+    }
+
+    /**
+     * 停止写日志线程，写完缓冲区中剩余的记录
+     */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = writerThread;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 记录一次请求，在请求线程上调用
+     * @param startNanos 开始处理请求时的 System.nanoTime()
+     * @param bytes 响应正文字节数，未知时为 -1
+     */
+    public void log(InetAddress remote, HttpRequestParser.HttpRequest request, int status, long bytes, long startNanos) {
+        if (sampleRate < 1.0 && status < 500 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            sampledOut.increment();
+            return;
+        }
+        Entry e = claim();
+        if (e == null) {
+            return;
+        }
+        e.timeMillis = System.currentTimeMillis();
+        e.remote = remote;
+        e.method = request.getMethod();
+        e.target = request.getTarget();
+        e.version = request.getVersion();
+        e.status = status;
+        e.bytes = bytes;
+        e.durationNanos = System.nanoTime() - startNanos;
+        e.message = null;
+        publish(e);
+    }
+
+    /**
+     * 记录调试信息；未开启调试时什么都不做。拼接消息有开销的调用方应先检查 isDebug()
+     */
+    public void debug(String message) {
+        if (!debug) {
+            return;
+        }
+        Entry e = claim();
+        if (e == null) {
+            return;
+        }
+        e.timeMillis = System.currentTimeMillis();
+        e.message = message;
+        publish(e);
+    }
+
+    /** 抢占下一个空闲槽位；缓冲区已满时返回 null */
+    private Entry claim() {
+        while (true) {
+            long t = tail.get();
+            Entry e = ring[(int) (t & mask)];
+            long seq = e.seq;
+            if (seq == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    return e;
+                }
+            } else if (seq < t) {
+                // 该槽位还没被写日志线程取走：缓冲区已满
+                dropped.increment();
+                return null;
+            }
+            // seq > t：其他生产者已经抢到这个序号，重试
+        }
+    }
+
+    private void publish(Entry e) {
+        e.seq = e.seq + 1;      // volatile 写，之前写入的字段对写日志线程可见
+        logged.increment();
+    }
+
+    private void drainLoop() {
+        StringBuilder sb = new StringBuilder(64 * 1024);
+        try {
+            while (true) {
+                boolean stopping = !running;
+                int n = drain(sb);
+                if (n > 0) {
+                    write(sb);
+                    sb.setLength(0);
+                } else if (stopping) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(20_000_000L);     // 空闲时每 20ms 检查一次
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[AccessLog] write failed, access logging disabled: " + e.getMessage());
+        } finally {
+            closeWriter();
+        }
+    }
+
+    /** 取出最多 BATCH 条记录格式化到 sb */
+    private int drain(StringBuilder sb) {
+        int n = 0;
+        while (n < BATCH) {
+            Entry e = ring[(int) (head & mask)];
+            if (e.seq != head + 1) {
+                break;
+            }
+            if (e.message != null) {
+                sb.append('[').append(time(e.timeMillis)).append("] ").append(e.message).append('\n');
+            } else {
+                append(sb, e);
+            }
+            e.remote = null;
+            e.message = null;
+            e.seq = head + ring.length;     // 交还给生产者，下一圈可用
+            head++;
+            n++;
+        }
+        return n;
+    }
+
+    private void append(StringBuilder sb, Entry e) {
+        for (Object token : format) {
+            if (token instanceof String) {
+                sb.append((String) token);
+                continue;
+            }
+            switch ((Character) token) {
+                case 't': sb.append(time(e.timeMillis)); break;
+                case 'a': sb.append(e.remote == null ? "-" : e.remote.getHostAddress()); break;
+                case 'm': sb.append(e.method); break;
+                case 'U': sb.append(e.target); break;
+                case 'H': sb.append(e.version); break;
+                case 'r': sb.append(e.method).append(' ').append(e.target).append(' ').append(e.version); break;
+                case 's': sb.append(e.status); break;
+                case 'b':
+                    if (e.bytes < 0) {
+                        sb.append('-');
+                    } else {
+                        sb.append(e.bytes);
+                    }
+                    break;
+                case 'D': sb.append(e.durationNanos / 1000); break;
+                default: break;
+            }
+        }
+        sb.append('\n');
+    }
+
+    /** 同一秒内的记录复用格式化好的时间 */
+    private String time(long millis) {
+        long second = millis / 1000;
+        if (second != lastSecond) {
+            lastSecond = second;
+            lastTime = timeFormat.format(Instant.ofEpochMilli(millis));
+        }
+        return lastTime;
+    }
+
+    private void write(StringBuilder sb) throws IOException {
+        if (out == null) {
+            openWriter();
+        }
+        out.append(sb);
+        out.flush();
+        fileBytes += sb.length();     // 按字符数估算，足够用于判断是否滚动
+        if (file != null && fileBytes >= maxFileBytes) {
+            rotate();
+        }
+    }
+
+    private void openWriter() throws IOException {
+        if (file == null) {
+            out = new OutputStreamWriter(new NonClosingOutputStream(System.out), StandardCharsets.UTF_8);
+            return;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create log directory " + dir);
+        }
+        out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+        fileBytes = file.length();
+    }
+
+    /** access.log → access.log.1 → access.log.2 …，超出保留个数的最旧文件被删除 */
+    private void rotate() throws IOException {
+        closeWriter();
+        File oldest = new File(file.getPath() + "." + maxFiles);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Cannot delete " + oldest);
+        }
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File f = new File(file.getPath() + "." + i);
+            if (f.exists() && !f.renameTo(new File(file.getPath() + "." + (i + 1)))) {
+                throw new IOException("Cannot rotate " + f);
+            }
+        }
+        if (maxFiles > 0 && !file.renameTo(new File(file.getPath() + ".1"))) {
+            throw new IOException("Cannot rotate " + file);
+        }
+        if (maxFiles == 0 && !file.delete()) {
+            throw new IOException("Cannot truncate " + file);
+        }
+        openWriter();
+    }
+
+    private void closeWriter() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignore) {
+                // 关闭失败无需处理
+            }
+            out = null;
+        }
+    }
+
+    /** 把格式串拆成字面文本（String）和占位符（Character） */
+    private static Object[] compile(String pattern) {
+        List<Object> tokens = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '%' && i + 1 < pattern.length()) {
+                char code = pattern.charAt(++i);
+                if (code == '%') {
+                    literal.append('%');
+                    continue;
+                }
+                if ("taUmHrsbD".indexOf(code) < 0) {
+                    throw new IllegalArgumentException("Unknown access log placeholder %" + code);
+                }
+                if (literal.length() > 0) {
+                    tokens.add(literal.toString());
+                    literal.setLength(0);
+                }
+                tokens.add(code);
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            tokens.add(literal.toString());
+        }
+        return tokens.toArray();
+    }
+
+    public long getLogged() {
+        return logged.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    /** 输出到标准输出时，关闭写入器不应关闭 System.out */
+    private static final class NonClosingOutputStream extends OutputStream {
+        private final OutputStream target;
+
+        NonClosingOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.server;
+
+import com.http.HttpRequestDecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 固定大小的 ByteBuffer 池（堆内或直接内存），以及服务器共用的几个池。
+ *
+ * 连接建立或需要时借出，连接关闭（或缓冲区用完）时归还，稳定负载下每个请求几乎不再分配缓冲区。
+ * 直接缓冲区写 socket 时不需要 JDK 内部再复制一次，适合只写不解析的场景（例如 NIO 的响应头）；
+ * 需要按字节解析或访问 array() 的缓冲区用堆内存。
+ */
+public class BufferPool extends ObjectPool<ByteBuffer> {
+    /** 读缓冲区：解码器在上面逐字节解析请求 */
+    public static final BufferPool READ = new BufferPool("read", 8 * 1024, false, 1024, 16);
+    /** 阻塞连接的输出缓冲区，多个管线化响应在这里合并后一次写出 */
+    public static final BufferPool OUTPUT = new BufferPool("output", 16 * 1024, false, 256, 4);
+    /** NIO 连接排队响应的响应头 */
+    public static final BufferPool HEADER = new BufferPool("header", 4 * 1024, true, 1024, 16);
+    /** 每个连接一个的请求解码器，归还时重置状态 */
+    public static final ObjectPool<HttpRequestDecoder> DECODERS =
+            new ObjectPool<>("decoder", HttpRequestDecoder::new, HttpRequestDecoder::reset, 1024, 16);
+
+    private final int bufferSize;
+    private final boolean direct;
+
+    /**
+     * @param bufferSize 每个缓冲区的容量
+     * @param direct 是否使用直接内存
+     */
+    public BufferPool(String name, int bufferSize, boolean direct, int maxShared, int threadCacheSize) {
+        super(name, () -> direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize),
+                ByteBuffer::clear, maxShared, threadCacheSize);
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public void release(ByteBuffer buf) {
+        // 只回收本池借出的规格，其他缓冲区（例如空间不够时临时分配的）直接丢弃
+        if (buf != null && buf.capacity() == bufferSize && buf.isDirect() == direct) {
+            super.release(buf);
+        }
+    }
+
+    /** 所有共用池的统计，用于定期输出 */
+    public static String report() {
+        return "[Pools] " + READ + " " + OUTPUT + " " + HEADER + " " + DECODERS;
+    }
+}
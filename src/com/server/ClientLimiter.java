@@ -0,0 +1,279 @@
+package com.server;
+
+import com.http.ConstantResponse;
+import com.http.HttpRequestParser;
+import com.http.HttpResponse;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按客户端 IP 的准入控制：限制同一 IP 同时打开的连接数，并用令牌桶限制请求速率（全局和按路由）。
+ * 超出限制的连接或请求得到 429 Too Many Requests，避免单个异常或恶意客户端占满工作线程、饿死其他客户端。
+ *
+ * 每个 IP 一条记录，存在 ConcurrentHashMap 中（内部按桶分段），记录里的计数全部是原子变量，
+ * 接收连接和处理请求的路径上没有锁。令牌桶用 GCRA（generic cell rate algorithm）实现：
+ * 只保存“理论到达时间”一个 long，取令牌是一次 CAS，效果与按时间补充令牌的令牌桶相同。
+ * 没有连接、令牌桶也已补满的记录在空闲一段时间后被清除，清除由正常请求顺带触发，不需要单独的线程。
+ */
+public final class ClientLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = 10_000_000_000L;
+
+    /** 一个令牌桶的参数：每秒 rate 个请求，最多攒 burst 个 */
+    private static final class Rate {
+        final long intervalNanos;
+        final long toleranceNanos;
+
+        Rate(double perSecond, int burst) {
+            this.intervalNanos = (long) (1e9 / perSecond);
+            this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        }
+    }
+
+    /** 按方法和路径前缀匹配的路由限速规则 */
+    private static final class Rule {
+        final String method;    // null 表示任意方法
+        final String pathPrefix;
+        final Rate rate;
+
+        Rule(String method, String pathPrefix, Rate rate) {
+            this.method = method;
+            this.pathPrefix = pathPrefix;
+            this.rate = rate;
+        }
+
+        boolean matches(HttpRequestParser.HttpRequest req) {
+            return (method == null || method.equals(req.getMethod()))
+                    && req.getPath() != null && req.getPath().startsWith(pathPrefix);
+        }
+    }
+
+    /** 一个 IP 的状态 */
+    private static final class Client {
+        // 当前打开的连接数；被清除的记录置为 RETIRED，之后取到它的线程重新查表
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicLong requestTat;        // 全局令牌桶的理论到达时间
+        final AtomicLong[] routeTat;        // 每条路由规则一个
+        volatile long lastSeen;
+
+        Client(int rules, long now) {
+            requestTat = new AtomicLong(now);
+            routeTat = new AtomicLong[rules];
+            for (int i = 0; i < rules; i++) {
+                routeTat[i] = new AtomicLong(now);
+            }
+            lastSeen = now;
+        }
+
+        /** 没有连接、所有令牌桶都已补满 */
+        boolean isIdle(long now) {
+            if (connections.get() != 0 || requestTat.get() - now > 0) {
+                return false;
+            }
+            for (AtomicLong tat : routeTat) {
+                if (tat.get() - now > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    private static final Metrics.Counter LIMITED_CONNECTIONS = Metrics.get().counter("http_rate_limited_total",
+            "Connections or requests rejected with 429 by the per-client limiter", Metrics.label("reason", "connections"));
+    private static final Metrics.Counter LIMITED_REQUESTS = Metrics.get().counter("http_rate_limited_total",
+            "Connections or requests rejected with 429 by the per-client limiter", Metrics.label("reason", "requests"));
+
+    private final Map<InetAddress, Client> clients = new ConcurrentHashMap<>();
+    private int maxConnections;
+    private Rate requestRate;
+    private final List<Rule> rules = new ArrayList<>();
+    private long idleNanos = 60_000_000_000L;
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+    private final ConstantResponse tooManyRequests = new ConstantResponse(new HttpResponse()
+            .status(429)
+            .header("Retry-After", "1")
+            .contentType("text/plain; charset=utf-8")
+            .body("Too Many Requests"), null);
+
+    /**
+     * 按系统属性创建：
+     * -Dhttp.maxConnectionsPerIp（默认 256，0 不限制）、
+     * -Dhttp.requestsPerSecondPerIp 与 -Dhttp.requestBurstPerIp（默认 0 即不限制全局速率）、
+     * -Dhttp.routeLimits（默认 "POST /login:10:20,POST /register:5:10"，格式为 "[方法 ]路径前缀:每秒请求数:突发数"，逗号分隔）
+     */
+    public static ClientLimiter defaults() {
+        ClientLimiter limiter = new ClientLimiter()
+                .maxConnectionsPerIp(Integer.getInteger("http.maxConnectionsPerIp", 256));
+        String rate = System.getProperty("http.requestsPerSecondPerIp");
+        if (rate != null && Double.parseDouble(rate) > 0) {
+            double perSecond = Double.parseDouble(rate);
+            limiter.requestRate(perSecond, Integer.getInteger("http.requestBurstPerIp", (int) Math.ceil(perSecond * 2)));
+        }
+        String routes = System.getProperty("http.routeLimits", "POST /login:10:20,POST /register:5:10");
+        for (String item : routes.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            String[] parts = item.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Bad route limit: " + item);
+            }
+            String target = parts[0].trim();
+            int space = target.indexOf(' ');
+            String method = space > 0 ? target.substring(0, space) : null;
+            String path = space > 0 ? target.substring(space + 1).trim() : target;
+            limiter.routeRate(method, path, Double.parseDouble(parts[1]), Integer.parseInt(parts[2].trim()));
+        }
+        return limiter;
+    }
+
+    /** 每个 IP 同时打开的连接数上限，0 表示不限制 */
+    public ClientLimiter maxConnectionsPerIp(int max) {
+        this.maxConnections = max;
+        return this;
+    }
+
+    /** 每个 IP 所有请求合计的速率上限 */
+    public ClientLimiter requestRate(double perSecond, int burst) {
+        this.requestRate = perSecond > 0 ? new Rate(perSecond, burst) : null;
+        return this;
+    }
+
+    /**
+     * 每个 IP 对某类路由的速率上限（在全局速率之外单独计算），需在服务器启动前添加
+     * @param method 请求方法，null 表示任意方法
+     * @param pathPrefix 路径前缀，例如 "/login"
+     */
+    public ClientLimiter routeRate(String method, String pathPrefix, double perSecond, int burst) {
+        if (!clients.isEmpty()) {
+            throw new IllegalStateException("Route limits must be added before the limiter is used");
+        }
+        rules.add(new Rule(method, pathPrefix, new Rate(perSecond, burst)));
+        return this;
+    }
+
+    /** 没有连接、令牌桶已满的记录空闲多久后清除 */
+    public ClientLimiter idleExpiry(long millis) {
+        this.idleNanos = millis * 1_000_000L;
+        return this;
+    }
+
+    /** 当前保存状态的客户端数量 */
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * 接收连接时调用：未超过该 IP 的连接数上限时计入并返回 true，之后必须调用 connectionClosed()
+     */
+    public boolean tryOpen(InetAddress address) {
+        long now = System.nanoTime();
+        sweep(now);
+        while (true) {
+            Client c = client(address, now);
+            int n = c.connections.get();
+            if (n == RETIRED) {
+                clients.remove(address, c);
+                continue;
+            }
+            if (maxConnections > 0 && n >= maxConnections) {
+                LIMITED_CONNECTIONS.increment();
+                return false;
+            }
+            if (c.connections.compareAndSet(n, n + 1)) {
+                c.lastSeen = now;
+                return true;
+            }
+        }
+    }
+
+    /** 由 tryOpen() 计入的连接关闭时调用 */
+    public void connectionClosed(InetAddress address) {
+        Client c = clients.get(address);
+        if (c != null) {
+            c.connections.decrementAndGet();    // 有连接的记录不会被清除，这里一定是计入时的同一条
+            c.lastSeen = System.nanoTime();
+        }
+    }
+
+    /**
+     * 处理请求前调用
+     * @return 允许处理时返回 null，超出速率时返回 429 响应
+     */
+    public HttpResponse checkRequest(InetAddress address, HttpRequestParser.HttpRequest req) {
+        if (requestRate == null && rules.isEmpty()) {
+            return null;
+        }
+        long now = System.nanoTime();
+        sweep(now);
+        Client c = client(address, now);
+        c.lastSeen = now;
+        boolean allowed = requestRate == null || take(c.requestTat, requestRate, now);
+        for (int i = 0; allowed && i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            if (rule.matches(req)) {
+                allowed = take(c.routeTat[i], rule.rate, now);
+            }
+        }
+        if (allowed) {
+            return null;
+        }
+        LIMITED_REQUESTS.increment();
+        return tooManyRequests.respond();
+    }
+
+    /** 超过连接数上限时回复的响应（之后关闭连接） */
+    public HttpResponse connectionLimitResponse() {
+        return tooManyRequests.respond().keepAlive(false);
+    }
+
+    private Client client(InetAddress address, long now) {
+        Client c = clients.get(address);
+        if (c == null) {
+            c = clients.computeIfAbsent(address, a -> new Client(rules.size(), now));
+        }
+        return c;
+    }
+
+    /**
+     * GCRA：理论到达时间超出当前时间不多于 (burst - 1) 个间隔时放行，并把它推后一个间隔
+     */
+    private static boolean take(AtomicLong tat, Rate rate, long now) {
+        while (true) {
+            long t = tat.get();
+            long base = t - now > 0 ? t : now;
+            if (base - now > rate.toleranceNanos) {
+                return false;
+            }
+            if (tat.compareAndSet(t, base + rate.intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 每隔一段时间由某个调用者顺带清除空闲记录；记录先用 CAS 标记为 RETIRED 再移除，
+     * 与同时在它上面计入连接的线程不会冲突
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now - next < 0 || !nextSweep.compareAndSet(next, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+        for (Map.Entry<InetAddress, Client> e : clients.entrySet()) {
+            Client c = e.getValue();
+            if (now - c.lastSeen > idleNanos && c.isIdle(now) && c.connections.compareAndSet(0, RETIRED)) {
+                clients.remove(e.getKey(), c);
+            }
+        }
+    }
+}
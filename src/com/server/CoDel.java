@@ -0,0 +1,45 @@
+package com.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CoDel 式的排队时延控制：不看队列有多长，而看任务在队列里等了多久。
+ *
+ * 每个时间窗口记录一次最小等待时间。如果整个窗口内连等得最短的任务都超过目标值，说明队列不是短暂的突发，
+ * 而是持续积压（standing queue），下一个窗口进入过载状态，等待超过两倍目标值的任务直接拒绝；
+ * 只要某个窗口里出现过低于目标值的等待，就退出过载状态。突发流量在一个窗口内消化掉时不会触发拒绝。
+ * 多个工作线程并发调用，全部用原子变量，窗口切换时的竞争只会让统计有一点误差。
+ */
+final class CoDel {
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final AtomicLong intervalEnd;
+    private final AtomicLong minWait = new AtomicLong(Long.MAX_VALUE);
+    private volatile boolean overloaded = false;
+
+    CoDel(long targetMillis, long intervalMillis) {
+        this.targetNanos = targetMillis * 1_000_000L;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.intervalEnd = new AtomicLong(System.nanoTime() + intervalNanos);
+    }
+
+    /**
+     * 记录一个任务的排队时间并判断是否应拒绝它
+     */
+    boolean shouldShed(long waitNanos) {
+        long now = System.nanoTime();
+        long end = intervalEnd.get();
+        if (now - end >= 0 && intervalEnd.compareAndSet(end, now + intervalNanos)) {
+            // 窗口结束：上一个窗口的最小等待决定接下来是否处于过载状态，新窗口从当前样本开始统计
+            long min = minWait.getAndSet(waitNanos);
+            overloaded = min != Long.MAX_VALUE && min > targetNanos;
+        } else {
+            minWait.accumulateAndGet(waitNanos, Math::min);
+        }
+        return overloaded && waitNanos > 2 * targetNanos;
+    }
+
+    boolean isOverloaded() {
+        return overloaded;
+    }
+}
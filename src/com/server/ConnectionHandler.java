@@ -1,5 +1,6 @@
 package com.server;
 
+import com.http.HttpRequestDecoder;
 import com.http.HttpRequestParser;
 import com.http.HttpResponse;
 import com.http.Router;
@@ -7,117 +8,337 @@ import com.http.Router;
 import java.io.*;
 import java.net.Socket;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 //import java.net.http.Server.HttpResponse;
 
 public class ConnectionHandler implements Runnable{
+    /**
+     * 等待异步响应（例如计算线程上的口令哈希）期间挂起的连接：请求、尚未完成的响应，
+     * 以及可能还有流水线请求的读缓冲区
+     */
+    static final class Pending {
+        final HttpRequestParser.HttpRequest req;
+        final CompletableFuture<HttpResponse> result;
+        final long start;
+        final ByteBuffer buf;
+
+        Pending(HttpRequestParser.HttpRequest req, CompletableFuture<HttpResponse> result, long start, ByteBuffer buf) {
+            this.req = req;
+            this.result = result;
+            this.start = start;
+            this.buf = buf;
+        }
+
+        /** 连接无法继续处理时丢弃挂起的状态 */
+        void discard() {
+            req.close();
+            BufferPool.READ.release(buf);
+        }
+    }
+
+    /** 异步响应完成后把挂起的连接重新交给线程池（在完成响应的线程上调用，不能阻塞） */
+    interface Resumer {
+        void resume(Socket socket, int served, Pending pending);
+    }
+
     private Socket clientSocket;    //记录客户端socket
+    private final AccessLog accessLog;
+    private final KeepAlivePolicy keepAlive;
+    private final IdleConnections idle;     // 为 null 时空闲连接一直占着本线程，直到超时
+    private final ClientLimiter limiter;    // 为 null 时不做按 IP 的限制
+    private final Resumer resumer;          // 为 null 时工作线程直接等待异步响应
+    private Pending pending;                // 恢复时先发送的异步响应
+    private final long parkAfterMillis;
+    private int served;                     // 本连接上已处理的请求数（停放后恢复时接着计数）
+    private final boolean resumed;
+    private boolean parkRequested = false;  // readRequest 发现连接空闲、应当停放
+    // 本线程是否已经读过（或等待过）这个连接：恢复的连接是因为有数据才交回来的，停放前至少要读一次，
+    // 否则线程池排队时会立即再次停放，连接在停放和恢复之间来回打转
+    private boolean readAttempted = false;
     private static final Router router = new Router();
 
     public ConnectionHandler(Socket clientSocket){
+        this(clientSocket, AccessLog.defaultLog());
+    }
+
+    public ConnectionHandler(Socket clientSocket, AccessLog accessLog){
+        this(clientSocket, accessLog, KeepAlivePolicy.defaults(), null, null, null, 0, false);
+    }
+
+    /**
+     * @param idle 空闲连接的停放处，为 null 时不停放（例如虚拟线程模式，阻塞的代价很小）
+     * @param limiter 按 IP 的限速器，连接已经通过它的 tryOpen() 计入，关闭时由本对象归还
+     * @param resumer 异步响应未完成时挂起连接、完成后交回线程池，为 null 时工作线程直接等待（例如虚拟线程模式）
+     * @param served 连接此前已处理的请求数
+     * @param resumed 是否是从停放处恢复的连接（连接数统计只在第一次处理时计入）
+     */
+    ConnectionHandler(Socket clientSocket, AccessLog accessLog, KeepAlivePolicy keepAlive,
+                      IdleConnections idle, ClientLimiter limiter, Resumer resumer, int served, boolean resumed){
         this.clientSocket=clientSocket;
+        this.accessLog=accessLog;
+        this.keepAlive=keepAlive;
+        this.idle=(clientSocket.getChannel()!=null)?idle:null;
+        this.limiter=limiter;
+        this.resumer=resumer;
+        this.parkAfterMillis=Math.min(keepAlive.getIdleTimeoutMillis(), Long.getLong("http.parkAfterMillis", 10));
+        this.served=served;
+        this.resumed=resumed;
+    }
+
+    /**
+     * 从挂起处恢复：先发送已完成的异步响应，再接着处理读缓冲区里剩下的数据
+     */
+    ConnectionHandler pending(Pending pending){
+        this.pending=pending;
+        return this;
     }
 
     @Override
     public void run(){      //threadPool.execute()调用
-        try (BufferedReader in =
-                     new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             OutputStream out = clientSocket.getOutputStream()) {
-
-            boolean isAlive = true;
-            clientSocket.setSoTimeout(100); // 10 秒无数据自动断开
-
-            while (isAlive) {
-                // 读取请求头
-                // 1. 读取请求行和请求头
-                StringBuilder requestBuilder = new StringBuilder();
-                String line;
-                int contentLength = 0;
-                boolean keepAliveRequested = false;//客户端是否请求保持连接
-
-                while ((line = in.readLine()) != null && line.length() != 0) {
-                    requestBuilder.append(line).append("\r\n");
-
-                    if (line.toLowerCase().startsWith("content-length:")) {
-                        String[] parts = line.split(":", 2);
-                        if (parts.length == 2) {
-                            contentLength = Integer.parseInt(parts[1].trim());
-                        }
-                    }
-                    //从请求头中提取Connection,检查是否为长连接
-                    if (line.toLowerCase().startsWith("connection:")) {
-                        String[] parts = line.split(":", 2);
-                        if (parts.length == 2) {
-                            String connValue = parts[1].trim().toLowerCase();
-                            keepAliveRequested = connValue.equals("keep-alive");
+        // 解码器和读缓冲区都从池中借出，连接结束或停放时归还，工作线程处理下一个连接时直接复用；
+        // 挂起的连接带着自己的读缓冲区
+        HttpRequestDecoder decoder = BufferPool.DECODERS.acquire();
+        ByteBuffer buf;
+        if (pending != null) {
+            buf = pending.buf;
+        } else {
+            buf = BufferPool.READ.acquire();
+            buf.flip();     // 读模式：未解码的数据
+        }
+        if (!resumed) {
+            ServerMetrics.CONNECTIONS.increment();
+            ServerMetrics.CONNECTIONS_OPEN.increment();
+        }
+        boolean parked = false;
+        boolean suspended = false;  // 等待异步响应，连接和读缓冲区交给了 Pending
+        // 输入流不放进 try-with-resources：关闭它会关闭 socket，停放的连接还要继续使用
+        try (OutputStream out = new PooledOutputStream(clientSocket.getOutputStream(), BufferPool.OUTPUT)) {
+            InputStream in = clientSocket.getInputStream();
+            long idleSince = System.currentTimeMillis();
+
+            // 支持 HTTP/1.1 管线化：缓冲区里已有的完整请求依次处理，响应先写入 out 的缓冲区，
+            // 只有在需要阻塞等待新数据（或连接结束）时才统一 flush，多个响应合并成一次写出
+            while (true) {
+                HttpRequestParser.HttpRequest req;
+                long start;
+                CompletableFuture<HttpResponse> result;
+                if (pending != null) {
+                    // 挂起时等待的异步响应已经完成
+                    req = pending.req;
+                    start = pending.start;
+                    result = pending.result;
+                    pending = null;
+                } else {
+                    // 1. 解析请求行、请求头和请求体（数据不够时先 flush 已有响应，再继续从 socket 读）
+                    try {
+                        req = readRequest(in, out, buf, decoder, idleSince);
+                    } catch (HttpRequestDecoder.BadRequestException e) {
+                        System.err.println("[?] Bad request: " + e.getMessage());
+                        HttpResponse bad = new HttpResponse()
+                                .status(e.getStatus())
+                                .contentType("text/plain; charset=utf-8")
+                                .body(e.getStatus() == 413 ? "Payload Too Large" : "Bad Request")
+                                .keepAlive(false);
+                        byte[] bytes = bad.toBytes();
+                        out.write(bytes);
+                        out.flush();
+                        ServerMetrics.BYTES_OUT.add(bytes.length);
+                        ServerMetrics.request(e.getStatus(), served);
+                        break;
+                    } catch (SocketTimeoutException e) {
+                        if (!decoder.isIdle()) {
+                            // 请求读到一半超时：回复 408，客户端知道不是服务器出错
+                            writeTimeout(out);
                         }
+                        accessLog.debug("[-] Connection timed out: " + clientSocket.getInetAddress());
+                        break;
                     }
 
-                }
-
-                if (requestBuilder.length() == 0) {
-                    break; // 没有数据 -> 客户端关闭
-                }
+                    if (parkRequested) {
+                        // 空闲超过 parkAfterMillis：交给停放线程等待下一个请求，本线程去处理其他连接
+                        idle.park(clientSocket, served, idleSince + keepAlive.getIdleTimeoutMillis());
+                        parked = true;
+                        break;
+                    }
+                    if (req == null) {
+                        break; // 没有数据 -> 客户端关闭
+                    }
 
-                requestBuilder.append("\r\n");
-
-                // 2. 读取请求体（如果有Content-Length）
-                String body = "";
-                if (contentLength > 0) {
-                    char[] bodyChars = new char[contentLength];
-                    int totalRead = 0;
-                    while (totalRead < contentLength) {
-                        int read = in.read(bodyChars, totalRead, contentLength - totalRead);
-                        if(read == -1) break;
-                        totalRead += read;
+                    if (accessLog.isDebug()) {
+                        accessLog.debug("===== Received Request =====\n" + req);
+                    }
+                    start = System.nanoTime();
+                    result = route(req);
+                    if (!result.isDone() && resumer != null) {
+                        // 响应在其他线程上计算：先发出已缓冲的响应，本线程去处理其他连接，完成后连接重新排队
+                        out.flush();
+                        Pending p = new Pending(req, result, start, buf);
+                        int count = served;
+                        suspended = true;
+                        result.whenComplete((response, e) -> resumer.resume(clientSocket, count, p));
+                        break;
                     }
-                    body = new String(bodyChars, 0, totalRead);
                 }
-
-                // 3. 组合完整请求
-                String fullRequest = requestBuilder.toString() + body;
-
-                System.out.println("===== Received Request =====");
-                System.out.println(fullRequest);
-                HttpRequestParser.HttpRequest req = null;
                 try {
-                    HttpRequestParser parser = new HttpRequestParser();
-                    req = parser.parse(new ByteArrayInputStream(requestBuilder.toString().getBytes()), body);
-
-                    HttpResponse response = router.route(req);
-
-                    out.write(response.toBytes());
-                    out.flush();
+                    HttpResponse response = result.join();
+                    boolean isAlive = keepAlive.apply(response, req.isKeepAlive(), served);
+                    long length = response.getBody().length();   // writeTo 会关闭正文，先记下长度
 
-                    isAlive = req.isKeepAlive() && keepAliveRequested;
-                    System.out.println("[Server.ConnectionHandler] Keep-Alive: " + isAlive);
+                    // 文件正文经 socket 通道零拷贝发送（sendfile），不再整体读入堆内存
+                    ServerMetrics.BYTES_OUT.add(response.writeTo(out, clientSocket.getChannel()));
+                    ServerMetrics.request(response.getStatus(), served++);
+                    accessLog.log(clientSocket.getInetAddress(), req, response.getStatus(), length, start);
+                    idleSince = System.currentTimeMillis();
 
                     if (!isAlive) {
                         break;
                     }
                 } catch (Exception e) {
-                    System.err.println("[?] Request handling error: " + e.getMessage());
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    System.err.println("[?] Request handling error: " + cause.getMessage());
+                    accessLog.log(clientSocket.getInetAddress(), req, 500, -1, start);
+                    ServerMetrics.request(500, served);
                     // 返回 500 响应并关闭连接（也可按需求根据 keep-alive 决定）
                     HttpResponse err = new HttpResponse()
                             .status(500)
                             .contentType("text/plain; charset=utf-8")
                             .body("Internal Server Error");
                     try {
-                        out.write(err.toBytes());
+                        byte[] bytes = err.toBytes();
+                        out.write(bytes);
                         out.flush();
+                        ServerMetrics.BYTES_OUT.add(bytes.length);
                     } catch (IOException ex) {
                         // 忽略写入错误
                     }
                     // 出错后关闭连接
                     break;
+                } finally {
+                    req.close();    // 删除溢出到磁盘的请求体
                 }
             }
 
-            clientSocket.close();
-            System.out.println("[-] Connection closed: " + clientSocket.getInetAddress());
-        }catch (java.net.SocketTimeoutException e) {
-            System.err.println("[Timeout] No data received for 10s, closing connection");
+            if (!parked && !suspended) {
+                out.flush();
+            }
         }catch (IOException e){
             System.err.println("[?] Connection error: " + e.getMessage());
+        }finally {
+            if (pending != null) {
+                pending.req.close();    // 恢复后还没来得及发送响应连接就出错了（读缓冲区在下面归还）
+            }
+            if (!parked && !suspended) {
+                try {
+                    clientSocket.close();
+                } catch (IOException ignore) {
+                    // 关闭失败无需处理
+                }
+                accessLog.debug("[-] Connection closed: " + clientSocket.getInetAddress());
+                ServerMetrics.CONNECTIONS_OPEN.decrement();
+                if (limiter != null) {
+                    limiter.connectionClosed(clientSocket.getInetAddress());
+                }
+            }
+            BufferPool.DECODERS.release(decoder);   // 归还时重置，连接中途断开时会丢弃未读完的请求体（包括临时文件）
+            if (!suspended) {
+                BufferPool.READ.release(buf);
+            }
+        }
+    }
+
+    /** 按 IP 限速后分发请求；异常以失败的结果返回，由调用方统一回复 500 */
+    private CompletableFuture<HttpResponse> route(HttpRequestParser.HttpRequest req) {
+        try {
+            HttpResponse limited = limiter != null ? limiter.checkRequest(clientSocket.getInetAddress(), req) : null;
+            return limited != null ? CompletableFuture.completedFuture(limited) : router.routeAsync(req);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void writeTimeout(OutputStream out) {
+        try {
+            byte[] bytes = new HttpResponse()
+                    .status(408)
+                    .contentType("text/plain; charset=utf-8")
+                    .body("Request Timeout")
+                    .keepAlive(false)
+                    .toBytes();
+            out.write(bytes);
+            out.flush();
+            ServerMetrics.BYTES_OUT.add(bytes.length);
+            ServerMetrics.request(408, served);
+        } catch (IOException ignore) {
+            // 客户端已断开，无需处理
+        }
+    }
+
+    /**
+     * 从缓冲区中解码出下一个请求，缓冲区数据不足时从输入流补充。
+     * 阻塞读取之前先把已写入缓冲的响应 flush 出去，避免管线化客户端等待响应时双方互相等待；
+     * 请求带 Expect: 100-continue 时在等待请求体之前先回复 100 Continue。
+     * 每次阻塞读取的超时按连接状态设置：请求之间用空闲超时（可停放时只等 parkAfterMillis），
+     * 读请求头时用从请求开始算起的请求头超时，读请求体时每次读取用空闲超时
+     * @return 完整请求；连接在请求开始前被关闭或应当停放（parkRequested）时返回 null
+     * @throws SocketTimeoutException 空闲或读取请求超时
+     */
+    private HttpRequestParser.HttpRequest readRequest(InputStream in, OutputStream out, ByteBuffer buf,
+                                                      HttpRequestDecoder decoder, long idleSince) throws IOException {
+        long headerDeadline = 0;
+        HttpRequestParser.HttpRequest req = decoder.decode(buf);
+        while (req == null) {
+            if (decoder.expectsContinue()) {
+                out.write(HttpResponse.CONTINUE);
+            }
+            out.flush();
+
+            long now = System.currentTimeMillis();
+            long timeout;
+            if (decoder.isIdle()) {
+                timeout = idleSince + keepAlive.getIdleTimeoutMillis() - now;
+                if (idle != null) {
+                    if (readAttempted && (now - idleSince >= parkAfterMillis || idle.parkImmediately())) {
+                        parkRequested = true;
+                        return null;
+                    }
+                    timeout = Math.min(timeout, Math.max(1, idleSince + parkAfterMillis - now));
+                }
+            } else if (decoder.isReadingHeaders()) {
+                if (headerDeadline == 0) {
+                    headerDeadline = now + keepAlive.getHeaderTimeoutMillis();
+                }
+                timeout = headerDeadline - now;
+            } else {
+                timeout = keepAlive.getIdleTimeoutMillis();
+            }
+            if (timeout <= 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            clientSocket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeout));
+
+            buf.clear();
+            int n;
+            try {
+                n = in.read(buf.array(), 0, buf.capacity());
+            } catch (SocketTimeoutException e) {
+                readAttempted = true;
+                buf.limit(0);
+                if (idle != null && decoder.isIdle()) {
+                    continue;   // 回到循环开头判断是停放还是超时
+                }
+                throw e;
+            }
+            readAttempted = true;
+            if (n == -1) {
+                return null;
+            }
+            ServerMetrics.BYTES_IN.add(n);
+            buf.limit(n);
+            req = decoder.decode(buf);
         }
+        return req;
     }
 }
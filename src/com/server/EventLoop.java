@@ -0,0 +1,431 @@
+package com.server;
+
+import com.http.HttpRequestDecoder;
+import com.http.HttpRequestParser;
+import com.http.HttpResponse;
+import com.http.Router;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * 事件循环 - 一个线程 + 一个 Selector，负责若干连接的非阻塞读写。
+ * 新连接可以由外部接收线程通过 register() 投递进来，也可以由本循环自己的接收器接收；
+ * 连接一旦注册，之后的所有 I/O 都只在本线程处理。
+ */
+public class EventLoop implements Runnable {
+    private final String name;
+    private final Router router;
+    private final AccessLog accessLog;
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();    // 其他线程投递到本循环执行的任务
+    private UnaryOperator<EventLoop> balancer;  // 本循环接收到新连接时，决定交给哪个循环
+    private KeepAlivePolicy keepAlivePolicy = KeepAlivePolicy.defaults();
+    private ClientLimiter limiter;  // 按 IP 的限制，null 表示不限制
+    // 本循环所有连接的空闲/请求头超时：每次读写只是 O(1) 地把定时器挪到新的槽
+    private final TimerWheel wheel = new TimerWheel(100, 512);
+    private volatile boolean running = true;
+
+    // 统计信息：只在本线程写入，其他线程读取用于报告（activeConnections 例外，移交连接的线程也会计入）
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    public EventLoop(String name, Router router) throws IOException {
+        this(name, router, AccessLog.defaultLog());
+    }
+
+    public EventLoop(String name, Router router, AccessLog accessLog) throws IOException {
+        this.name = name;
+        this.router = router;
+        this.accessLog = accessLog;
+        this.selector = Selector.open();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** 本循环的连接数，包括已经移交过来、还在队列里等待注册的连接 */
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * 把一个已接收的连接交给本事件循环（可在任意线程调用）
+     */
+    public void register(SocketChannel channel) {
+        // 移交时立即计入，接收风暴中连续的 pick() 能看到还没注册的连接，不会都选中同一个循环
+        activeConnections.incrementAndGet();
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * 让本循环直接在监听通道上接收连接，需在循环线程启动前调用
+     * @param serverChannel 非阻塞的监听通道（可与其他循环共享，也可是 SO_REUSEPORT 的独立通道）
+     * @param balancer 根据当前循环选出目标循环，返回自身时连接不发生跨线程移交
+     */
+    void attachAcceptor(ServerSocketChannel serverChannel, UnaryOperator<EventLoop> balancer) throws IOException {
+        this.balancer = balancer;
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** 设置长连接策略，需在循环线程启动前调用 */
+    void keepAlive(KeepAlivePolicy policy) {
+        this.keepAlivePolicy = policy;
+    }
+
+    /** 设置按 IP 的限速器（可与其他循环共用），需在循环线程启动前调用 */
+    void limiter(ClientLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(wheel.nextTickDelay());
+                registerPending();
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        onAcceptable((ServerSocketChannel) key.channel());
+                        continue;
+                    }
+                    NioConnection conn = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            onReadable(conn);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            onWritable(conn);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("[?] Connection error: " + e.getMessage());
+                        close(conn);
+                    }
+                }
+                wheel.advance();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("[?] Event loop " + name + " error: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                Object att = key.attachment();
+                if (att instanceof NioConnection) {
+                    close((NioConnection) att);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignore) {
+                // 关闭失败无需处理
+            }
+        }
+    }
+
+    private void onAcceptable(ServerSocketChannel serverChannel) {
+        SocketChannel channel;
+        try {
+            // 共享监听通道时其他循环可能已经取走连接，accept() 返回 null 即结束
+            while ((channel = serverChannel.accept()) != null) {
+                accessLog.debug("[+] New connection from " + channel.socket().getInetAddress());
+                EventLoop target = balancer.apply(this);
+                if (target == this) {
+                    activeConnections.incrementAndGet();
+                    registerChannel(channel);
+                } else {
+                    target.register(channel);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[?] Accept error on " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            registerChannel(channel);
+        }
+    }
+
+    /** 在本循环线程上执行任务（可在任意线程调用） */
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /** 注册一个已计入 activeConnections 的连接，连接被拒绝或注册失败时撤销计数 */
+    private void registerChannel(SocketChannel channel) {
+        try {
+            if (limiter != null && !limiter.tryOpen(channel.socket().getInetAddress())) {
+                // 同一 IP 的连接数已达上限：新连接的发送缓冲区是空的，阻塞写一个小响应不会等待
+                activeConnections.decrementAndGet();
+                channel.write(ByteBuffer.wrap(limiter.connectionLimitResponse().toBytes()));
+                channel.close();
+                return;
+            }
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            NioConnection conn = new NioConnection(channel, key);
+            conn.timeout = new TimerWheel.Timeout(() -> onTimeout(conn));
+            key.attach(conn);
+            updateTimeout(conn);
+            acceptedConnections.incrementAndGet();
+            ServerMetrics.CONNECTIONS.increment();
+            ServerMetrics.CONNECTIONS_OPEN.increment();
+        } catch (IOException e) {
+            System.err.println("[?] Register error: " + e.getMessage());
+            activeConnections.decrementAndGet();
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+                // 关闭失败无需处理
+            }
+        }
+    }
+
+    private void close(NioConnection conn) {
+        wheel.cancel(conn.timeout);
+        if (conn.channel.isOpen()) {
+            activeConnections.decrementAndGet();
+            ServerMetrics.CONNECTIONS_OPEN.decrement();
+            if (limiter != null) {
+                limiter.connectionClosed(conn.channel.socket().getInetAddress());
+            }
+        }
+        conn.close();
+    }
+
+    private void onReadable(NioConnection conn) throws IOException {
+        int n = conn.read();
+        if (n < 0) {
+            close(conn);   // 客户端关闭
+            return;
+        }
+        bytesIn.addAndGet(n);
+        ServerMetrics.BYTES_IN.add(n);
+
+        processRequests(conn);
+        conn.releaseReadBuffer();
+        onWritable(conn);
+    }
+
+    /**
+     * 依次解码并处理缓冲区里的请求。处理器把响应交给其他线程计算时（异步路由）不等待结果，
+     * 暂停这个连接的读取和解析，等响应完成后再接着处理，保证流水线上的响应按请求顺序发出
+     */
+    private void processRequests(NioConnection conn) throws IOException {
+        while (!conn.isCloseAfterWrite() && !conn.awaitingResponse) {
+            HttpRequestParser.HttpRequest req;
+            try {
+                req = conn.nextRequest();
+            } catch (HttpRequestDecoder.BadRequestException e) {
+                System.err.println("[?] Bad request: " + e.getMessage());
+                conn.enqueue(new HttpResponse()
+                        .status(e.getStatus())
+                        .contentType("text/plain; charset=utf-8")
+                        .body(e.getStatus() == 413 ? "Payload Too Large" : "Bad Request")
+                        .keepAlive(false)
+                        .toBytes());
+                ServerMetrics.request(e.getStatus(), conn.served);
+                conn.closeAfterWrite();
+                break;
+            }
+            if (req == null) {
+                if (conn.expectsContinue()) {
+                    conn.enqueue(HttpResponse.CONTINUE);
+                }
+                break;  // 数据不足，等待下一次可读事件
+            }
+            conn.headerDeadline = 0;    // 下一个请求的请求头超时从它的第一个字节开始算
+
+            if (accessLog.isDebug()) {
+                accessLog.debug("===== Received Request =====\n" + req);
+            }
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse> pending;
+            try {
+                HttpResponse limited = limiter != null
+                        ? limiter.checkRequest(conn.channel.socket().getInetAddress(), req) : null;
+                pending = limited != null ? CompletableFuture.completedFuture(limited) : router.routeAsync(req);
+            } catch (Exception e) {
+                pending = CompletableFuture.failedFuture(e);
+            }
+            if (pending.isDone()) {
+                respond(conn, req, pending, start);
+            } else {
+                conn.awaitingResponse = true;
+                CompletableFuture<HttpResponse> result = pending;
+                result.whenComplete((response, e) -> execute(() -> onResponseReady(conn, req, result, start)));
+            }
+        }
+    }
+
+    /** 异步响应完成后在本循环线程上调用 */
+    private void onResponseReady(NioConnection conn, HttpRequestParser.HttpRequest req,
+                                 CompletableFuture<HttpResponse> result, long start) {
+        try {
+            if (!conn.channel.isOpen()) {
+                req.close();    // 等待期间连接已超时关闭
+                return;
+            }
+            conn.awaitingResponse = false;
+            respond(conn, req, result, start);
+            processRequests(conn);  // 接着处理等待期间留在缓冲区里的流水线请求
+            conn.releaseReadBuffer();
+            onWritable(conn);
+        } catch (IOException e) {
+            System.err.println("[?] Connection error: " + e.getMessage());
+            close(conn);
+        }
+    }
+
+    /** 把已完成的响应排入连接的写队列 */
+    private void respond(NioConnection conn, HttpRequestParser.HttpRequest req,
+                         CompletableFuture<HttpResponse> result, long start) throws IOException {
+        HttpResponse response;
+        boolean keepAlive;
+        try {
+            response = result.join();
+            keepAlive = keepAlivePolicy.apply(response, req.isKeepAlive(), conn.served);
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            System.err.println("[?] Request handling error: " + cause.getMessage());
+            response = new HttpResponse()
+                    .status(500)
+                    .contentType("text/plain; charset=utf-8")
+                    .body("Internal Server Error");
+            keepAlive = false;  // 出错后关闭连接
+        } finally {
+            req.close();    // 删除溢出到磁盘的请求体
+        }
+        requests.incrementAndGet();
+        ServerMetrics.request(response.getStatus(), conn.served++);
+        long length = response.getBody().length();
+        conn.enqueue(response);
+        // NIO 下响应只是进入写队列，耗时不含发送时间
+        accessLog.log(conn.channel.socket().getInetAddress(), req, response.getStatus(), length, start);
+        if (!keepAlive) {
+            conn.closeAfterWrite();
+        }
+    }
+
+    private void onWritable(NioConnection conn) throws IOException {
+        long written = conn.flush();
+        bytesOut.addAndGet(written);
+        ServerMetrics.BYTES_OUT.add(written);
+        if (!conn.hasPendingWrites()) {
+            if (conn.isCloseAfterWrite()) {
+                close(conn);
+                return;
+            }
+            conn.key.interestOps(conn.awaitingResponse ? 0 : SelectionKey.OP_READ);
+            updateTimeout(conn);
+        } else {
+            // 写不完时暂停读，避免在对端不收数据时继续堆积响应
+            conn.key.interestOps(SelectionKey.OP_WRITE);
+            updateTimeout(conn);    // 对端仍在接收数据，按空闲超时重新计时
+        }
+    }
+
+    /**
+     * 按连接当前的状态重新计时：请求头读到一半时以请求开始时刻算起的请求头超时为准（之后的数据不会延长它，
+     * 防止慢速发送请求头长期占住连接），其余情况按空闲超时从现在算起
+     */
+    private void updateTimeout(NioConnection conn) {
+        long now = System.currentTimeMillis();
+        if (conn.isReadingHeaders() && !conn.hasPendingWrites()) {
+            if (conn.headerDeadline == 0) {
+                conn.headerDeadline = now + keepAlivePolicy.getHeaderTimeoutMillis();
+            }
+            wheel.scheduleAt(conn.timeout, conn.headerDeadline);
+        } else {
+            wheel.scheduleAt(conn.timeout, now + keepAlivePolicy.getIdleTimeoutMillis());
+        }
+    }
+
+    /**
+     * 超时：请求读到一半时回复 408 再关闭，空闲连接或对端不接收数据时直接关闭；等待异步响应的连接顺延
+     */
+    private void onTimeout(NioConnection conn) {
+        if (conn.awaitingResponse) {
+            // 响应还在其他线程上计算（计算线程池自己有排队时限），连接不算空闲；响应写出后按正常状态重新计时
+            wheel.scheduleAt(conn.timeout, System.currentTimeMillis() + keepAlivePolicy.getIdleTimeoutMillis());
+            return;
+        }
+        accessLog.debug("[-] Connection timed out: " + conn.channel.socket().getInetAddress());
+        if (conn.isIdle() || conn.hasPendingWrites() || conn.isCloseAfterWrite()) {
+            close(conn);
+            return;
+        }
+        conn.enqueue(new HttpResponse()
+                .status(408)
+                .contentType("text/plain; charset=utf-8")
+                .body("Request Timeout")
+                .keepAlive(false)
+                .toBytes());
+        ServerMetrics.request(408, conn.served);
+        conn.closeAfterWrite();
+        try {
+            onWritable(conn);
+        } catch (IOException e) {
+            close(conn);
+        }
+        if (conn.channel.isOpen()) {
+            // 408 没能一次写完时不再等待
+            wheel.scheduleAt(conn.timeout, System.currentTimeMillis() + keepAlivePolicy.getIdleTimeoutMillis());
+        }
+    }
+}
@@ -1,38 +1,256 @@
 package com.server;
 
+import com.http.ConstantResponse;
+import com.http.HttpResponse;
+
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class HttpServer {
+    /**
+     * 连接处理的执行方式
+     * FIXED_POOL：固定大小线程池，并发长连接数受线程数限制
+     * VIRTUAL_THREADS：每个连接一个虚拟线程（需要 JDK 21+），阻塞式代码无需改写即可支撑大量并发连接
+     *
+     * 虚拟线程固定（pinning）审查：ConnectionHandler → Router → UserController/StaticFileHandler 路径上
+     * 没有 synchronized 块或方法，阻塞点只有 Socket 读写和文件读取；UserService 使用 ConcurrentHashMap，
+     * 其内部的 synchronized 只覆盖不阻塞的桶操作。JDK 21 的 PrintStream/BufferedReader 在未被继承时
+     * 使用内部 ReentrantLock，日志输出也不会固定载体线程。新增代码请保持这一点：需要互斥时用
+     * java.util.concurrent.locks，而不是在可能阻塞的代码外面包 synchronized。
+     */
+    public enum ExecutionMode {
+        FIXED_POOL,
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * 线程池等待队列满时的处理方式（只对 FIXED_POOL 生效，虚拟线程没有等待队列）
+     * SHED：立即回复预先编码的 503 + Retry-After 并关闭连接，客户端可以马上重试其他实例
+     * BACKPRESSURE：暂停 accept，新连接留在内核的 backlog 里，backlog 也满后由 TCP 让客户端等待/重传
+     */
+    public enum OverloadPolicy {
+        SHED,
+        BACKPRESSURE
+    }
+
     private int port;
+    private final int threadCount;
+    private final ExecutionMode mode;
 
-    // 线程池
+    // 线程池，startServer() 时按配置创建
     private ExecutorService threadPool ;
+    private AccessLog accessLog = AccessLog.defaultLog();
+    private OverloadPolicy overloadPolicy =
+            OverloadPolicy.valueOf(System.getProperty("http.overloadPolicy", "SHED").toUpperCase());
+    private int queueCapacity = Integer.getInteger("http.queueCapacity", 256);
+    // 连接在队列里等待的目标时间和统计窗口（CoDel），目标为 0 表示不按等待时间拒绝。
+    // 一个任务是整条连接而不是单个请求，等待时间天然比请求级队列长，默认值相应放宽
+    private long queueTargetMillis = Long.getLong("http.queueTargetMillis", 100);
+    private long queueIntervalMillis = Long.getLong("http.queueIntervalMillis", 1000);
+    private int retryAfterSeconds = 1;
+
+    private Semaphore admission;    // BACKPRESSURE：线程数 + 队列容量个许可，连接处理完才归还
+    private CoDel codel;
+    private KeepAlivePolicy keepAlive = KeepAlivePolicy.defaults();
+    private IdleConnections idle;   // 空闲长连接的停放处，只在 FIXED_POOL 下使用
+    private ConnectionHandler.Resumer resumer;  // 等待异步响应的连接不占工作线程，只在 FIXED_POOL 下使用
+    private ClientLimiter limiter = ClientLimiter.defaults();
+    private ConstantResponse overloadedResponse;
+
+    private static final Metrics.Counter SHED_QUEUE_FULL = Metrics.get().counter("http_shed_connections_total",
+            "Connections rejected with 503 because the server was overloaded", Metrics.label("reason", "queue_full"));
+    private static final Metrics.Counter SHED_QUEUE_DELAY = Metrics.get().counter("http_shed_connections_total",
+            "Connections rejected with 503 because the server was overloaded", Metrics.label("reason", "queue_delay"));
+    private static final Metrics.LatencyHistogram QUEUE_WAIT = Metrics.get().histogram("http_queue_wait_seconds",
+            "Time an accepted connection waited for a worker thread", "");
 
     //构造函数
     public HttpServer(int port){
-        this.port=port;
-        this.threadPool=Executors.newFixedThreadPool(1);
+        this(port, 1);
     }
 
     public HttpServer(int port, int threadCount){
+        this(port, threadCount, ExecutionMode.FIXED_POOL);
+    }
+
+    public HttpServer(int port, int threadCount, ExecutionMode mode){
         this.port=port;
-        this.threadPool=Executors.newFixedThreadPool(threadCount);
+        this.threadCount=threadCount;
+        this.mode=mode;
+    }
+
+    /** 等待队列满时的处理方式，默认 SHED */
+    public HttpServer overloadPolicy(OverloadPolicy policy){
+        this.overloadPolicy=policy;
+        return this;
+    }
+
+    /** 等待工作线程的连接最多排多少个（默认 256，-Dhttp.queueCapacity） */
+    public HttpServer queueCapacity(int capacity){
+        this.queueCapacity=capacity;
+        return this;
+    }
+
+    /**
+     * 按排队时间拒绝（CoDel）：一个统计窗口内的最短等待都超过 targetMillis 时，
+     * 拒绝等待超过两倍目标值的连接；targetMillis 为 0 表示关闭
+     */
+    public HttpServer queueDelayTarget(long targetMillis, long intervalMillis){
+        this.queueTargetMillis=targetMillis;
+        this.queueIntervalMillis=intervalMillis;
+        return this;
+    }
+
+    /** 长连接的空闲超时、请求头超时和每连接最大请求数，默认见 KeepAlivePolicy.defaults() */
+    public HttpServer keepAlive(KeepAlivePolicy policy){
+        this.keepAlive=policy;
+        return this;
+    }
+
+    /** 按客户端 IP 的连接数和请求速率限制，默认见 ClientLimiter.defaults()，null 表示不限制 */
+    public HttpServer limiter(ClientLimiter limiter){
+        this.limiter=limiter;
+        return this;
+    }
+
+    /** 503 响应中建议客户端等待的秒数 */
+    public HttpServer retryAfter(int seconds){
+        this.retryAfterSeconds=seconds;
+        return this;
+    }
+
+    /**
+     * 替换访问日志（默认写入 logs/access.log）
+     */
+    public HttpServer accessLog(AccessLog accessLog){
+        this.accessLog=accessLog;
+        return this;
+    }
+
+    private ExecutorService createExecutor(){
+        if (mode==ExecutionMode.VIRTUAL_THREADS) {
+            return newVirtualThreadExecutor();
+        }
+        // 有界队列：超出容量时 execute() 抛 RejectedExecutionException，由接收线程决定拒绝还是等待
+        return new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 通过反射调用 Executors.newVirtualThreadPerTaskExecutor()，
+     * 这样项目仍可按 JDK 11 语言级别编译，运行在 JDK 21+ 上时才启用虚拟线程
+     */
+    private static ExecutorService newVirtualThreadExecutor(){
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require JDK 21+, running on " + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * 线程池的排队长度和忙碌线程数：排队长度持续大于 0 说明连接数超过了线程数，新连接在等待
+     */
+    private void registerExecutorGauges(){
+        if (threadPool instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) threadPool;
+            Metrics.get().gauge("http_executor_queue_depth", "Connections waiting for a worker thread",
+                    () -> pool.getQueue().size());
+            Metrics.get().gauge("http_executor_active_threads", "Worker threads currently serving a connection",
+                    pool::getActiveCount);
+            Metrics.get().gauge("http_executor_pool_size", "Worker threads in the pool", pool::getPoolSize);
+            Metrics.get().gauge("http_executor_queue_capacity", "Maximum connections waiting for a worker thread",
+                    () -> queueCapacity);
+            if (codel != null) {
+                Metrics.get().gauge("http_queue_overloaded", "1 while queue wait time stays above the CoDel target",
+                        () -> codel.isOverloaded() ? 1 : 0);
+            }
+        }
     }
 
     public void startServer(){
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        threadPool=createExecutor();
+        boolean bounded=threadPool instanceof ThreadPoolExecutor;
+        admission=(bounded&&overloadPolicy==OverloadPolicy.BACKPRESSURE)
+                ? new Semaphore(threadCount+Math.max(1, queueCapacity)) : null;
+        codel=(bounded&&queueTargetMillis>0) ? new CoDel(queueTargetMillis, queueIntervalMillis) : null;
+        overloadedResponse=new ConstantResponse(new HttpResponse()
+                .status(503)
+                .header("Retry-After", String.valueOf(retryAfterSeconds))
+                .contentType("text/plain; charset=utf-8")
+                .body("Service Unavailable"), null);
+        if (bounded) {
+            resumer=this::resume;
+            // 线程池大小有限，空闲的长连接停放到 Selector 上，不占工作线程；虚拟线程阻塞的代价很小，不需要停放
+            try {
+                BlockingQueue<Runnable> queue=((ThreadPoolExecutor) threadPool).getQueue();
+                idle=new IdleConnections(this::resume, () -> !queue.isEmpty(), limiter, accessLog);
+                idle.start();
+                Metrics.get().gauge("http_idle_connections", "Keep-alive connections parked while waiting for a request",
+                        idle::size);
+            } catch (IOException e) {
+                System.err.println("[?] Idle connection selector unavailable: " + e.getMessage());
+            }
+        }
+        if (limiter != null) {
+            Metrics.get().gauge("http_limiter_clients", "Client addresses tracked by the per-client limiter",
+                    limiter::size);
+        }
+        registerExecutorGauges();
+        // 用阻塞模式的 ServerSocketChannel 接收连接，这样得到的 Socket 带有通道，静态文件可以走 transferTo 零拷贝
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
             System.out.println("HTTP server is on. Your port is  " + port);
 
             while (true) {
+                if (admission != null) {
+                    // 线程和队列都占满时不再 accept，连接停在内核 backlog 里（TCP 背压）
+                    admission.acquireUninterruptibly();
+                }
                 // 等待客户端连接
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("[+] New connection from " + clientSocket.getInetAddress());
+                Socket clientSocket;
+                try {
+                    clientSocket = serverChannel.accept().socket();
+                } catch (IOException e) {
+                    if (admission != null) {
+                        admission.release();
+                    }
+                    throw e;
+                }
+                accessLog.debug("[+] New connection from " + clientSocket.getInetAddress());
+                if (limiter != null && !limiter.tryOpen(clientSocket.getInetAddress())) {
+                    // 同一 IP 的连接数已达上限：在接收线程上直接回复 429，不占用工作线程
+                    if (admission != null) {
+                        admission.release();
+                    }
+                    refuse(clientSocket, limiter.connectionLimitResponse());
+                    continue;
+                }
                 // 将连接交给线程池处理
-                threadPool.execute(new ConnectionHandler(clientSocket));
+                try {
+                    threadPool.execute(new QueuedConnection(clientSocket, 0, false, admission != null, null));
+                } catch (RejectedExecutionException e) {
+                    // 队列已满（BACKPRESSURE 下不会发生）：直接回复 503，比让客户端在队列里等到超时更便宜
+                    if (admission != null) {
+                        admission.release();
+                    }
+                    SHED_QUEUE_FULL.increment();
+                    reject(clientSocket, false);
+                }
             }
         } catch (IOException e) {
             System.err.println("[?] Server error: " + e.getMessage());
@@ -41,4 +259,101 @@ public class HttpServer {
             System.out.println("[×] Server stopped.");
         }
     }
+
+    /**
+     * 排队中的连接：记录入队时间，轮到处理时先按排队时间决定是否拒绝
+     */
+    private final class QueuedConnection implements Runnable {
+        private final Socket socket;
+        private final int served;
+        private final boolean resumed;      // 是否是从停放处恢复的连接
+        private final boolean holdsPermit;  // 是否占用了 BACKPRESSURE 的许可
+        private final ConnectionHandler.Pending pending;    // 异步响应已完成、等待发送的连接
+        private final long enqueuedAt = System.nanoTime();
+
+        QueuedConnection(Socket socket, int served, boolean resumed, boolean holdsPermit,
+                         ConnectionHandler.Pending pending) {
+            this.socket = socket;
+            this.served = served;
+            this.resumed = resumed;
+            this.holdsPermit = holdsPermit;
+            this.pending = pending;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long wait = System.nanoTime() - enqueuedAt;
+                QUEUE_WAIT.record(wait);
+                // 响应已经算好的连接只差发送，不再按排队时间拒绝
+                if (pending == null && codel != null && codel.shouldShed(wait)) {
+                    SHED_QUEUE_DELAY.increment();
+                    reject(socket, resumed);
+                    return;
+                }
+                new ConnectionHandler(socket, accessLog, keepAlive, idle, limiter, resumer, served, resumed)
+                        .pending(pending)
+                        .run();
+            } finally {
+                if (holdsPermit) {
+                    admission.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 停放的连接收到新请求，重新交给线程池（在停放线程上调用，不能阻塞）。
+     * 它不占用 BACKPRESSURE 的许可——许可只控制接收新连接；队列已满时同样回复 503
+     */
+    private void resume(Socket socket, int served) {
+        resume(socket, served, null);
+    }
+
+    /**
+     * 等待异步响应的连接在响应完成后重新交给线程池（在完成响应的线程上调用）；队列已满时丢弃响应，回复 503
+     */
+    private void resume(Socket socket, int served, ConnectionHandler.Pending pending) {
+        try {
+            threadPool.execute(new QueuedConnection(socket, served, true, false, pending));
+        } catch (RejectedExecutionException e) {
+            if (pending != null) {
+                pending.discard();
+            }
+            SHED_QUEUE_FULL.increment();
+            reject(socket, true);
+        }
+    }
+
+    /**
+     * 过载时回复 503 并关闭一个已通过限速器计入的连接
+     * @param open 连接是否已计入打开的连接数（从停放处恢复的连接）
+     */
+    private void reject(Socket socket, boolean open) {
+        if (open) {
+            ServerMetrics.CONNECTIONS_OPEN.decrement();
+        }
+        if (limiter != null) {
+            limiter.connectionClosed(socket.getInetAddress());
+        }
+        refuse(socket, overloadedResponse.respond().keepAlive(false));
+    }
+
+    /**
+     * 回复一个拒绝响应并关闭连接，不读取请求。关闭前丢弃已经到达的请求数据，
+     * 避免内核因接收缓冲区里还有未读数据而发送 RST，导致客户端收不到响应
+     */
+    private void refuse(Socket socket, HttpResponse response) {
+        try (Socket s = socket) {
+            s.getOutputStream().write(response.toBytes());
+            s.shutdownOutput();
+            InputStream in = s.getInputStream();
+            int available;
+            while ((available = in.available()) > 0) {
+                in.skip(available);
+            }
+        } catch (IOException ignore) {
+            // 客户端已断开，无需处理
+        }
+    }
 }
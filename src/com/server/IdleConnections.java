@@ -0,0 +1,181 @@
+package com.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * 阻塞模式下空闲长连接的停放处。
+ *
+ * 工作线程处理完请求后，如果连接在短时间内没有新数据，就把它交到这里，自己去处理其他连接：
+ * 一个线程用 Selector 同时等待所有停放连接的可读事件，用时间轮管理它们的空闲超时。
+ * 连接有新请求到达时切回阻塞模式，交还给线程池继续处理；超时的连接直接关闭。
+ * 这样线程池的大小只需要覆盖正在处理请求的连接数，而不是所有打开的长连接数。
+ */
+final class IdleConnections implements Runnable {
+    private static final long TICK_MILLIS = 100;
+
+    /** 一个停放中的连接 */
+    private final class Parked {
+        final Socket socket;
+        final int served;
+        final long deadline;
+        final TimerWheel.Timeout timeout = new TimerWheel.Timeout(this::expire);
+        SelectionKey key;
+
+        Parked(Socket socket, int served, long deadline) {
+            this.socket = socket;
+            this.served = served;
+            this.deadline = deadline;
+        }
+
+        private void expire() {
+            accessLog.debug("[-] Idle connection timed out: " + socket.getInetAddress());
+            close(this);
+        }
+    }
+
+    private final Selector selector;
+    private final TimerWheel wheel;
+    private final ObjIntConsumer<Socket> resume;
+    private final BooleanSupplier workWaiting;
+    private final ClientLimiter limiter;
+    private final AccessLog accessLog;
+    private final Queue<Parked> pending = new ConcurrentLinkedQueue<>();
+    private volatile int parkedCount = 0;   // 只由停放线程写入
+
+    /**
+     * @param resume 连接有新数据时调用（在停放线程上），参数为已切回阻塞模式的连接和它已处理的请求数
+     * @param workWaiting 是否有其他连接在排队等待工作线程
+     * @param limiter 超时关闭连接时归还按 IP 的连接计数，可为 null
+     */
+    IdleConnections(ObjIntConsumer<Socket> resume, BooleanSupplier workWaiting, ClientLimiter limiter,
+                    AccessLog accessLog) throws IOException {
+        this.selector = Selector.open();
+        this.wheel = new TimerWheel(TICK_MILLIS, 512);
+        this.resume = resume;
+        this.workWaiting = workWaiting;
+        this.limiter = limiter;
+        this.accessLog = accessLog;
+    }
+
+    void start() {
+        Thread t = new Thread(this, "idle-connections");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 工作线程是否应该立即停放空闲连接：有连接在排队时不能让线程空等，
+     * 否则先短暂等一下，请求-响应紧接着的客户端就不必经过停放和恢复
+     */
+    boolean parkImmediately() {
+        return workWaiting.getAsBoolean();
+    }
+
+    /** 停放中的连接数 */
+    int size() {
+        return parkedCount;
+    }
+
+    /**
+     * 停放一个连接（可在任意线程调用）；连接必须来自 ServerSocketChannel，且没有未处理的已读数据
+     * @param deadlineMillis 空闲超时的绝对时间，到时仍没有新请求就关闭连接
+     */
+    void park(Socket socket, int served, long deadlineMillis) {
+        pending.add(new Parked(socket, served, deadlineMillis));
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        List<Parked> ready = new ArrayList<>();
+        try {
+            while (true) {
+                if (selector.selectedKeys().isEmpty()) {
+                    selector.select(wheel.nextTickDelay());
+                } else {
+                    selector.selectNow();
+                }
+                registerPending();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        Parked p = (Parked) key.attachment();
+                        key.cancel();
+                        wheel.cancel(p.timeout);
+                        ready.add(p);
+                    }
+                }
+                wheel.advance();
+
+                if (!ready.isEmpty()) {
+                    // 已取消的 key 要等下一次 select 才真正注销，注销之后通道才能切回阻塞模式
+                    selector.selectNow();
+                    for (Parked p : ready) {
+                        wakeUp(p);
+                    }
+                    ready.clear();
+                }
+                parkedCount = wheel.size();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("[?] Idle connection selector error: " + e.getMessage());
+        }
+    }
+
+    private void registerPending() {
+        Parked p;
+        while ((p = pending.poll()) != null) {
+            try {
+                SocketChannel channel = p.socket.getChannel();
+                channel.configureBlocking(false);
+                p.key = channel.register(selector, SelectionKey.OP_READ, p);
+                wheel.scheduleAt(p.timeout, p.deadline);
+            } catch (IOException e) {
+                System.err.println("[?] Park error: " + e.getMessage());
+                close(p);
+            }
+        }
+    }
+
+    private void wakeUp(Parked p) {
+        try {
+            p.socket.getChannel().configureBlocking(true);
+        } catch (IOException e) {
+            System.err.println("[?] Resume error: " + e.getMessage());
+            close(p);
+            return;
+        }
+        resume.accept(p.socket, p.served);
+    }
+
+    private void close(Parked p) {
+        wheel.cancel(p.timeout);
+        if (p.key != null) {
+            p.key.cancel();
+        }
+        try {
+            p.socket.close();
+        } catch (IOException ignore) {
+            // 关闭失败无需处理
+        }
+        ServerMetrics.CONNECTIONS_OPEN.decrement();
+        if (limiter != null) {
+            limiter.connectionClosed(p.socket.getInetAddress());
+        }
+    }
+}
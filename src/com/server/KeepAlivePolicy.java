@@ -0,0 +1,74 @@
+package com.server;
+
+import com.http.HttpResponse;
+
+/**
+ * 长连接策略：空闲超时、读取请求头的超时和每个连接最多处理的请求数。
+ *
+ * 每个响应都带上 Connection 和 Keep-Alive: timeout=N, max=M，客户端据此在服务器关闭空闲连接之前
+ * 主动放弃它、在达到上限时提前新建连接，而不是把请求发到一个正在被关闭的连接上再重试。
+ */
+public final class KeepAlivePolicy {
+    private static final int CACHED_HEADERS = 1024;
+
+    private final long idleTimeoutMillis;
+    private final long headerTimeoutMillis;
+    private final int maxRequests;
+    private final String timeoutValue;
+    private final String[] headerValues;    // 剩余请求数 -> Keep-Alive 头的值，避免每个响应拼字符串
+
+    /**
+     * @param idleTimeoutMillis 两个请求之间（以及读取请求体时）最长的无数据时间
+     * @param headerTimeoutMillis 从请求的第一个字节到请求头读完的最长时间，防止慢速发送请求头占住连接
+     * @param maxRequests 每个连接最多处理的请求数，0 表示不限制
+     */
+    public KeepAlivePolicy(long idleTimeoutMillis, long headerTimeoutMillis, int maxRequests) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        this.maxRequests = maxRequests;
+        this.timeoutValue = "timeout=" + Math.max(1, idleTimeoutMillis / 1000);
+        this.headerValues = new String[maxRequests > 0 ? Math.min(maxRequests, CACHED_HEADERS) + 1 : 0];
+        for (int i = 1; i < headerValues.length; i++) {
+            headerValues[i] = timeoutValue + ", max=" + i;
+        }
+    }
+
+    /**
+     * 默认值：空闲 10 秒、请求头 10 秒、每个连接 1000 个请求，
+     * 可用 -Dhttp.keepAliveTimeout、-Dhttp.headerTimeout（毫秒）和 -Dhttp.maxKeepAliveRequests 修改
+     */
+    public static KeepAlivePolicy defaults() {
+        return new KeepAlivePolicy(Long.getLong("http.keepAliveTimeout", 10_000),
+                Long.getLong("http.headerTimeout", 10_000),
+                Integer.getInteger("http.maxKeepAliveRequests", 1000));
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getHeaderTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * 决定处理完当前请求后是否保持连接，并设置响应的 Connection 和 Keep-Alive 头
+     * @param requested 客户端是否要求长连接（HttpRequest.isKeepAlive()）
+     * @param served 本连接上此前已处理的请求数
+     * @return 写完响应后是否继续读下一个请求
+     */
+    public boolean apply(HttpResponse response, boolean requested, int served) {
+        int remaining = maxRequests > 0 ? maxRequests - served - 1 : Integer.MAX_VALUE;
+        boolean keep = requested && remaining > 0 && !"close".equalsIgnoreCase(response.getHeader("Connection"));
+        response.keepAlive(keep);
+        if (keep) {
+            response.header("Keep-Alive", remaining < headerValues.length ? headerValues[remaining]
+                    : maxRequests > 0 ? timeoutValue + ", max=" + remaining : timeoutValue);
+        }
+        return keep;
+    }
+}
@@ -0,0 +1,104 @@
+package com.server;
+
+import com.http.ResponseBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 引用计数的只读文件映射 - 同一个大文件的并发下载共享一份 MappedByteBuffer，
+ * 数据直接来自操作系统页缓存，不会复制到 Java 堆上。
+ *
+ * 缓存条目持有一个引用，每个正在发送的响应各持有一个引用；
+ * 条目被淘汰或作废时释放自己的引用，最后一个引用释放时立即解除映射。
+ */
+public class MappedFile {
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        // 解除映射需要 sun.misc.Unsafe.invokeCleaner（jdk.unsupported 模块），拿不到时交给 GC 回收
+        Object unsafe = null;
+        Method cleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            cleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[MappedFile] explicit unmap unavailable: " + e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = cleaner;
+    }
+
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger refs = new AtomicInteger(1);   // 初始引用属于缓存条目
+
+    private MappedFile(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * 以只读方式映射整个文件
+     */
+    public static MappedFile map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // 映射建立后与通道无关，关闭通道不影响映射
+            return new MappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public long length() {
+        return buffer.capacity();
+    }
+
+    /**
+     * 增加一个引用；映射已经释放时返回 false，调用方应改为直接读文件
+     */
+    public boolean retain() {
+        while (true) {
+            int n = refs.get();
+            if (n <= 0) {
+                return false;
+            }
+            if (refs.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (refs.decrementAndGet() == 0 && INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("[MappedFile] unmap failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * 生成一个共享本映射的响应正文，调用前须已 retain()，正文关闭时自动 release()
+     */
+    public ResponseBody newBody() {
+        return ResponseBody.ofBuffer(buffer, this::release);
+    }
+
+    /**
+     * 生成映射中一段区间的正文（用于 Range 请求），引用规则同 newBody()
+     */
+    public ResponseBody newBody(long offset, long length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int) offset).limit((int) (offset + length));
+        return ResponseBody.ofBuffer(slice, this::release);
+    }
+}
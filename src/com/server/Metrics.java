@@ -0,0 +1,251 @@
+package com.server;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 指标注册表 - 计数器、仪表和延迟直方图，按 Prometheus 文本格式（0.0.4）输出。
+ *
+ * 记录路径上只有 LongAdder 的自增（按线程分槽，多核并发写不争用同一个缓存行），没有锁；
+ * 注册和抓取都很少发生，用并发有序表保存，输出按指标名和标签排序。
+ * 同名同标签的指标重复注册时返回已有的那个，多个服务器实例可以共用。
+ */
+public class Metrics {
+    private static final Metrics DEFAULT = new Metrics();
+
+    /** 一个指标的某一组标签取值 */
+    private interface Sample {
+        void render(StringBuilder sb, String name, String labels);
+    }
+
+    /** 同名指标：一行 HELP、一行 TYPE，之后是各组标签的取值 */
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Sample> samples = new ConcurrentSkipListMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /** 基于 LongAdder 的计数器，也可作为可增可减的仪表 */
+    public static final class Counter implements Sample {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void decrement() {
+            value.decrement();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void render(StringBuilder sb, String name, String labels) {
+            line(sb, name, labels, null).append(value.sum()).append('\n');
+        }
+    }
+
+    private static final class Gauge implements Sample {
+        private final DoubleSupplier value;
+
+        Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void render(StringBuilder sb, String name, String labels) {
+            line(sb, name, labels, null).append(number(value.getAsDouble())).append('\n');
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /** 服务器共用的注册表，/metrics 输出的就是它 */
+    public static Metrics get() {
+        return DEFAULT;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, "");
+    }
+
+    /**
+     * @param labels 标签，例如 code="2xx"；没有标签时为空串
+     */
+    public Counter counter(String name, String help, String labels) {
+        return (Counter) register(name, help, "counter", labels, new Counter());
+    }
+
+    /**
+     * 抓取时读取的计数器，用于组件自己维护的累计值（例如缓存命中次数）；同名计数器重新注册时替换旧的取值函数
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        family(name, help, "counter").samples.put("", new Gauge(value::getAsLong));
+    }
+
+    /** 由调用方增减的仪表，例如当前打开的连接数 */
+    public Counter upDownCounter(String name, String help) {
+        return (Counter) register(name, help, "gauge", "", new Counter());
+    }
+
+    /**
+     * 抓取时计算取值的仪表；同名同标签的仪表重新注册时替换旧的取值函数
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        family(name, help, "gauge").samples.put("", new Gauge(value));
+    }
+
+    public LatencyHistogram histogram(String name, String help, String labels) {
+        return (LatencyHistogram) register(name, help, "histogram", labels, new LatencyHistogram());
+    }
+
+    private Sample register(String name, String help, String type, String labels, Sample created) {
+        Sample existing = family(name, help, type).samples.putIfAbsent(labels, created);
+        return existing != null ? existing : created;
+    }
+
+    private Family family(String name, String help, String type) {
+        Family f = families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!f.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + f.type);
+        }
+        return f;
+    }
+
+    /**
+     * 输出所有指标（Prometheus 文本格式）
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Map.Entry<String, Family> e : families.entrySet()) {
+            String name = e.getKey();
+            Family f = e.getValue();
+            sb.append("# HELP ").append(name).append(' ').append(f.help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(f.type).append('\n');
+            for (Map.Entry<String, Sample> s : f.samples.entrySet()) {
+                s.getValue().render(sb, name, s.getKey());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 拼一个标签对，值中的反斜杠、双引号和换行按格式要求转义
+     */
+    public static String label(String name, String value) {
+        StringBuilder sb = new StringBuilder(name.length() + value.length() + 3);
+        sb.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /** 输出 name{labels,extra} 和空格，extra 为附加标签（例如直方图的 le） */
+    static StringBuilder line(StringBuilder sb, String name, String labels, String extra) {
+        sb.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            sb.append('{').append(labels);
+            if (extra != null) {
+                if (!labels.isEmpty()) {
+                    sb.append(',');
+                }
+                sb.append(extra);
+            }
+            sb.append('}');
+        }
+        return sb.append(' ');
+    }
+
+    static String number(double v) {
+        if (Double.isNaN(v)) {
+            return "NaN";
+        }
+        if (v == (long) v) {
+            return Long.toString((long) v);
+        }
+        if (Double.isInfinite(v)) {
+            return v > 0 ? "+Inf" : "-Inf";
+        }
+        return BigDecimal.valueOf(v).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * 延迟直方图 - 固定的对数分布桶（100µs ~ 10s），每个桶一个 LongAdder，
+     * 记录时只做一次比较查找和一次无锁自增；输出时转换成 Prometheus 要求的累计计数。
+     */
+    public static final class LatencyHistogram implements Sample {
+        private static final double[] BOUNDS_SECONDS = {
+                0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025,
+                0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+        private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+        private static final String[] LE = new String[BOUNDS_SECONDS.length + 1];
+
+        static {
+            for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+                BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * 1_000_000_000L);
+                LE[i] = "le=\"" + number(BOUNDS_SECONDS[i]) + "\"";
+            }
+            LE[BOUNDS_SECONDS.length] = "le=\"+Inf\"";
+        }
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_SECONDS.length + 1];  // 最后一个是 +Inf
+        private final LongAdder sumNanos = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            int i = 0;
+            while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        public long getCount() {
+            long n = 0;
+            for (LongAdder b : buckets) {
+                n += b.sum();
+            }
+            return n;
+        }
+
+        @Override
+        public void render(StringBuilder sb, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                line(sb, name + "_bucket", labels, LE[i]).append(cumulative).append('\n');
+            }
+            line(sb, name + "_sum", labels, null).append(number(sumNanos.sum() / 1e9)).append('\n');
+            line(sb, name + "_count", labels, null).append(cumulative).append('\n');
+        }
+    }
+}
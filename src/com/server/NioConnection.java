@@ -0,0 +1,303 @@
+package com.server;
+
+import com.http.ChunkedOutputStream;
+import com.http.HttpRequestDecoder;
+import com.http.HttpRequestParser;
+import com.http.HttpResponse;
+import com.http.ResponseBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * NIO 模式下单个连接的状态：读缓冲区、待写出的响应队列以及长连接标记。
+ * 只会被所属的 EventLoop 线程访问，因此不需要加锁。
+ */
+class NioConnection {
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    // 读缓冲区（读模式：未解码的数据）只在处理可读事件期间借用，数据解码完就归还，
+    // 空闲的长连接不占缓冲区；解码器保存半个请求的状态，随连接借出和归还
+    private ByteBuffer readBuffer;
+    private HttpRequestDecoder decoder = BufferPool.DECODERS.acquire();
+    private final Deque<Object> pendingWrites = new ArrayDeque<>();  // ByteBuffer、PendingBody 或 PendingStream
+    // 排队中响应的响应头依次编码在这里（写模式），队列全部写完后归还
+    private ByteBuffer headerBuffer;
+    private boolean closeAfterWrite = false;
+    int served = 0;     // 本连接上已处理的请求数，用于统计长连接复用
+    TimerWheel.Timeout timeout;     // 空闲/请求头超时，由 EventLoop 设置和维护
+    long headerDeadline = 0;        // 当前请求的请求头必须在此时间（毫秒）之前读完，0 表示未开始
+    boolean awaitingResponse = false;   // 处理器的响应在其他线程上计算，期间暂停读取和解析后续请求
+
+    NioConnection(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * 从通道读取数据到缓冲区
+     * @return 本次读到的字节数，-1 表示对端已关闭
+     */
+    int read() throws IOException {
+        if (readBuffer == null) {
+            readBuffer = BufferPool.READ.acquire();
+        }
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        readBuffer.flip();
+        return n;
+    }
+
+    /**
+     * 读到的数据已经全部交给解码器时归还读缓冲区
+     */
+    void releaseReadBuffer() {
+        if (readBuffer != null && !readBuffer.hasRemaining()) {
+            BufferPool.READ.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * 从已读入的数据中继续解码请求；解码器会保存半个请求的状态，等下一次可读事件再接着解析
+     * @return 完整请求；数据不足时返回 null
+     */
+    HttpRequestParser.HttpRequest nextRequest() throws IOException {
+        if (readBuffer == null) {
+            return null;    // 缓冲区已归还，没有未解码的数据
+        }
+        return decoder.decode(readBuffer);
+    }
+
+    /** 是否处于两个请求之间（没有读到一半的请求） */
+    boolean isIdle() {
+        return decoder == null || decoder.isIdle();
+    }
+
+    /** 请求行或请求头是否读到一半 */
+    boolean isReadingHeaders() {
+        return decoder != null && decoder.isReadingHeaders();
+    }
+
+    /** 当前请求是否在等待请求体前需要先回复 100 Continue */
+    boolean expectsContinue() {
+        return decoder.expectsContinue();
+    }
+
+    void enqueue(byte[] bytes) {
+        pendingWrites.add(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 排入一个响应：响应头直接编码进连接的响应头缓冲区，和内存正文作为两个缓冲区用聚集写发出（不拼接），
+     * 文件正文单独排队等待 transferTo，
+     * 流式正文在可写时才逐块拉取（数据源在事件循环线程上调用，不能阻塞）
+     */
+    void enqueue(HttpResponse response) throws IOException {
+        ResponseBody body = response.getBody();
+        pendingWrites.add(encodeHeaders(response));
+        if (response.getStatus() == 304 || body.length() == 0) {
+            body.close();
+        } else if (body.inMemory()) {
+            pendingWrites.add(body.toByteBuffer());
+        } else if (body.chunks() != null) {
+            pendingWrites.add(new PendingStream(body, body.chunks(), body.length() < 0));
+        } else {
+            pendingWrites.add(new PendingBody(body));
+        }
+    }
+
+    /** 在响应头缓冲区的剩余空间里编码，放不下时才单独分配 */
+    private ByteBuffer encodeHeaders(HttpResponse response) {
+        if (headerBuffer == null) {
+            headerBuffer = BufferPool.HEADER.acquire();
+        }
+        int start = headerBuffer.position();
+        if (!response.encodeHeaders(headerBuffer)) {
+            return ByteBuffer.wrap(response.headerBytes());
+        }
+        ByteBuffer view = headerBuffer.duplicate();
+        view.position(start).limit(headerBuffer.position());
+        return view;
+    }
+
+    /**
+     * 尽可能多地写出待发送数据：连续的内存缓冲区用一次聚集写（gathering write）发出，
+     * 文件正文用 transferTo；写不完的部分留在队列里等待 OP_WRITE
+     * @return 本次写出的字节数
+     */
+    long flush() throws IOException {
+        long written = 0;
+        while (!pendingWrites.isEmpty()) {
+            Object head = pendingWrites.peek();
+            if (head instanceof PendingBody) {
+                PendingBody pb = (PendingBody) head;
+                long n = pb.body.transferTo(channel, pb.position);
+                pb.position += n;
+                written += n;
+                if (pb.position < pb.body.length()) {
+                    break;  // 内核发送缓冲区已满
+                }
+                pb.body.close();
+                pendingWrites.poll();
+                continue;
+            }
+            if (head instanceof PendingStream) {
+                PendingStream ps = (PendingStream) head;
+                long n = ps.write(channel);
+                written += n;
+                if (!ps.done) {
+                    break;  // 内核发送缓冲区已满
+                }
+                ps.body.close();
+                pendingWrites.poll();
+                continue;
+            }
+
+            List<ByteBuffer> batch = new ArrayList<>();
+            for (Object o : pendingWrites) {
+                if (!(o instanceof ByteBuffer)) {
+                    break;
+                }
+                batch.add((ByteBuffer) o);
+            }
+            written += channel.write(batch.toArray(new ByteBuffer[0]));
+            while (!pendingWrites.isEmpty() && pendingWrites.peek() instanceof ByteBuffer
+                    && !((ByteBuffer) pendingWrites.peek()).hasRemaining()) {
+                pendingWrites.poll();
+            }
+            if (!pendingWrites.isEmpty() && pendingWrites.peek() instanceof ByteBuffer) {
+                break;  // 内核发送缓冲区已满
+            }
+        }
+        if (pendingWrites.isEmpty() && headerBuffer != null) {
+            BufferPool.HEADER.release(headerBuffer);    // 没有引用它的待写数据了
+            headerBuffer = null;
+        }
+        return written;
+    }
+
+    boolean hasPendingWrites() {
+        return !pendingWrites.isEmpty();
+    }
+
+    void closeAfterWrite() {
+        this.closeAfterWrite = true;
+    }
+
+    boolean isCloseAfterWrite() {
+        return closeAfterWrite;
+    }
+
+    void close() {
+        for (Object o : pendingWrites) {
+            ResponseBody body = o instanceof PendingBody ? ((PendingBody) o).body
+                    : o instanceof PendingStream ? ((PendingStream) o).body : null;
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException ignore) {
+                    // 关闭失败无需处理
+                }
+            }
+        }
+        pendingWrites.clear();
+        // 归还缓冲区和解码器（解码器重置时会丢弃未读完的请求体，包括临时文件）
+        if (decoder != null) {
+            BufferPool.DECODERS.release(decoder);
+            decoder = null;
+        }
+        if (readBuffer != null) {
+            BufferPool.READ.release(readBuffer);
+            readBuffer = null;
+        }
+        if (headerBuffer != null) {
+            BufferPool.HEADER.release(headerBuffer);
+            headerBuffer = null;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+            // 关闭失败无需处理
+        }
+    }
+
+    /** 等待发送的非内存正文及其发送进度 */
+    private static final class PendingBody {
+        final ResponseBody body;
+        long position = 0;
+
+        PendingBody(ResponseBody body) {
+            this.body = body;
+        }
+    }
+
+    /**
+     * 正在发送的流式正文：每次取一个数据块，需要分块编码时加上长度行和 CRLF，
+     * 三段缓冲区用一次聚集写发出
+     */
+    private static final class PendingStream {
+        final ResponseBody body;
+        final ResponseBody.ChunkSource source;
+        final boolean chunked;
+        private ByteBuffer[] current;     // 当前数据块的待写缓冲区
+        private boolean last = false;     // current 是否为结束块
+        boolean done = false;
+
+        PendingStream(ResponseBody body, ResponseBody.ChunkSource source, boolean chunked) {
+            this.body = body;
+            this.source = source;
+            this.chunked = chunked;
+        }
+
+        /**
+         * 写出数据直到内核缓冲区写满或数据源结束
+         * @return 本次写出的字节数
+         */
+        long write(SocketChannel channel) throws IOException {
+            long written = 0;
+            while (!done) {
+                if (current == null && !nextFrame()) {
+                    return written;
+                }
+                written += channel.write(current);
+                if (current[current.length - 1].hasRemaining()) {
+                    return written;
+                }
+                done = last;
+                current = null;
+            }
+            return written;
+        }
+
+        /** 取下一个数据块组成待写缓冲区；数据源结束时为分块编码补上结束块 */
+        private boolean nextFrame() throws IOException {
+            ByteBuffer chunk;
+            do {
+                chunk = source.nextChunk();
+            } while (chunk != null && !chunk.hasRemaining());
+            if (chunk == null) {
+                if (!chunked) {
+                    done = true;
+                    return false;
+                }
+                current = new ByteBuffer[]{ByteBuffer.wrap(ChunkedOutputStream.LAST_CHUNK)};
+                last = true;
+                return true;
+            }
+            current = chunked
+                    ? new ByteBuffer[]{ByteBuffer.wrap(ChunkedOutputStream.chunkHeader(chunk.remaining())),
+                            chunk, ByteBuffer.wrap(ChunkedOutputStream.CRLF)}
+                    : new ByteBuffer[]{chunk};
+            return true;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.server;
+
+import com.http.Router;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 Selector 的 NIO 服务器：若干事件循环线程处理连接的读写。
+ * 与 HttpServer 不同，连接不会独占线程，空闲或慢速的长连接只占用一个 SelectionKey。
+ *
+ * 两种接收方式：
+ * SINGLE：一个接收线程阻塞 accept，再把连接交给事件循环
+ * PER_LOOP：多 Reactor 模式，每个事件循环自带接收器（支持时使用 SO_REUSEPORT 让内核分片），
+ *           避免单个 accept 循环在连接风暴（如发布后客户端集中重连）时成为瓶颈
+ */
+public class NioHttpServer {
+    public enum AcceptMode {
+        SINGLE,
+        PER_LOOP
+    }
+
+    /** 新连接分配给哪个事件循环 */
+    public enum Balance {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    private final int port;
+    private final EventLoop[] loops;
+    private final AcceptMode acceptMode;
+    private final Balance balance;
+    private final Router router = new Router();
+    private final AccessLog accessLog;
+    private final AtomicInteger next = new AtomicInteger();   // 轮询分配下标
+    private int statsIntervalSeconds = 0;
+
+    public NioHttpServer(int port) throws IOException {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NioHttpServer(int port, int loopCount) throws IOException {
+        this(port, loopCount, AcceptMode.SINGLE, Balance.ROUND_ROBIN);
+    }
+
+    public NioHttpServer(int port, int loopCount, AcceptMode acceptMode, Balance balance) throws IOException {
+        this(port, loopCount, acceptMode, balance, AccessLog.defaultLog());
+    }
+
+    /**
+     * @param accessLog 访问日志，所有事件循环共用
+     */
+    public NioHttpServer(int port, int loopCount, AcceptMode acceptMode, Balance balance, AccessLog accessLog)
+            throws IOException {
+        this.port = port;
+        this.accessLog = accessLog;
+        this.acceptMode = acceptMode;
+        this.balance = balance;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("nio-loop-" + i, router, accessLog);
+        }
+        limiter(ClientLimiter.defaults());
+    }
+
+    /**
+     * 每隔若干秒打印各事件循环的连接数与吞吐量，0 表示不打印
+     */
+    public NioHttpServer statsInterval(int seconds) {
+        this.statsIntervalSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * 长连接的空闲超时、请求头超时和每连接最大请求数，需在 startServer() 之前调用
+     */
+    public NioHttpServer keepAlive(KeepAlivePolicy policy) {
+        for (EventLoop loop : loops) {
+            loop.keepAlive(policy);
+        }
+        return this;
+    }
+
+    /**
+     * 按客户端 IP 的连接数和请求速率限制，所有事件循环共用一个实例；需在 startServer() 之前调用，null 表示不限制
+     */
+    public NioHttpServer limiter(ClientLimiter limiter) {
+        for (EventLoop loop : loops) {
+            loop.limiter(limiter);
+        }
+        return this;
+    }
+
+    public EventLoop[] getLoops() {
+        return loops.clone();
+    }
+
+    public void startServer() {
+        List<ServerSocketChannel> channels = new ArrayList<>();
+        try {
+            if (acceptMode == AcceptMode.PER_LOOP) {
+                startPerLoopAcceptors(channels);
+            } else {
+                startSingleAcceptor(channels);
+            }
+        } catch (IOException e) {
+            System.err.println("[?] Server error: " + e.getMessage());
+        } finally {
+            for (EventLoop loop : loops) {
+                loop.shutdown();
+            }
+            for (ServerSocketChannel ch : channels) {
+                try {
+                    ch.close();
+                } catch (IOException ignore) {
+                    // 关闭失败无需处理
+                }
+            }
+            System.out.println("[×] Server stopped.");
+        }
+    }
+
+    private void startSingleAcceptor(List<ServerSocketChannel> channels) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        channels.add(serverChannel);
+        serverChannel.bind(new InetSocketAddress(port));
+        startLoops();
+        System.out.println("NIO HTTP server is on. Your port is  " + port + ", event loops: " + loops.length);
+
+        while (true) {
+            // 接收线程阻塞在 accept 上，连接建立后交给事件循环
+            SocketChannel channel = serverChannel.accept();
+            accessLog.debug("[+] New connection from " + channel.socket().getInetAddress());
+            pick(null).register(channel);
+        }
+    }
+
+    private void startPerLoopAcceptors(List<ServerSocketChannel> channels) throws IOException {
+        ServerSocketChannel shared = null;
+        for (EventLoop loop : loops) {
+            ServerSocketChannel ch = ServerSocketChannel.open();
+            if (ch.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                // 每个循环绑定自己的监听套接字，由内核把新连接分散到各个套接字
+                ch.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                ch.bind(new InetSocketAddress(port));
+            } else {
+                // 不支持 SO_REUSEPORT 时，所有循环共享一个非阻塞监听通道
+                ch.close();
+                if (shared == null) {
+                    shared = ServerSocketChannel.open();
+                    shared.bind(new InetSocketAddress(port));
+                }
+                ch = shared;
+            }
+            if (!channels.contains(ch)) {
+                channels.add(ch);
+            }
+            loop.attachAcceptor(ch, this::pick);
+        }
+        System.out.println("NIO HTTP server is on. Your port is  " + port
+                + ", reactors: " + loops.length + ", balance: " + balance
+                + (shared == null ? ", SO_REUSEPORT" : ", shared listener"));
+
+        Thread[] threads = startLoops();
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Thread[] startLoops() {
+        Thread[] threads = new Thread[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            threads[i] = new Thread(loops[i], loops[i].getName());
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        if (statsIntervalSeconds > 0) {
+            Thread reporter = new Thread(this::reportLoop, "nio-stats");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+        return threads;
+    }
+
+    /**
+     * 选择新连接的目标事件循环
+     * @param acceptor 接收到连接的循环，单接收线程模式下为 null
+     */
+    EventLoop pick(EventLoop acceptor) {
+        if (balance == Balance.LEAST_LOADED) {
+            // 负载相同时优先留在接收循环上，省去一次跨线程移交
+            EventLoop best = acceptor != null ? acceptor : loops[0];
+            for (EventLoop loop : loops) {
+                if (loop.getActiveConnections() < best.getActiveConnections()) {
+                    best = loop;
+                }
+            }
+            return best;
+        }
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    private void reportLoop() {
+        long[] lastRequests = new long[loops.length];
+        long[] lastIn = new long[loops.length];
+        long[] lastOut = new long[loops.length];
+        while (true) {
+            try {
+                Thread.sleep(statsIntervalSeconds * 1000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+            StringBuilder sb = new StringBuilder("[Stats]");
+            for (int i = 0; i < loops.length; i++) {
+                EventLoop loop = loops[i];
+                long req = loop.getRequests();
+                long in = loop.getBytesIn();
+                long out = loop.getBytesOut();
+                sb.append(String.format(" %s{conns=%d, accepted=%d, req/s=%.1f, in=%.1fKB/s, out=%.1fKB/s}",
+                        loop.getName(), loop.getActiveConnections(), loop.getAcceptedConnections(),
+                        (req - lastRequests[i]) / (double) statsIntervalSeconds,
+                        (in - lastIn[i]) / 1024.0 / statsIntervalSeconds,
+                        (out - lastOut[i]) / 1024.0 / statsIntervalSeconds));
+                lastRequests[i] = req;
+                lastIn[i] = in;
+                lastOut[i] = out;
+            }
+            System.out.println(sb);
+            System.out.println(BufferPool.report());
+            System.out.println("[AccessLog] logged=" + accessLog.getLogged() + ", dropped=" + accessLog.getDropped()
+                    + ", sampledOut=" + accessLog.getSampledOut());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 有界对象池 - 每个线程先用自己的小缓存（无竞争），不够时再去共享队列取，都没有才新建。
+ *
+ * 归还时先重置对象，再放回本线程缓存或共享队列；两者都满时直接丢弃交给 GC，
+ * 因此池的总量有上限，不会因为一次流量高峰长期占住内存。
+ * 虚拟线程数量多、生命周期短，线程缓存没有意义，只使用共享队列。
+ */
+public class ObjectPool<T> {
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private final String name;
+    private final Supplier<T> factory;
+    private final Consumer<T> recycler;
+    private final int maxShared;
+    private final int threadCacheSize;
+    private final ConcurrentLinkedQueue<T> shared = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sharedSize = new AtomicInteger();
+    private final ThreadLocal<ArrayDeque<T>> local;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param factory 池中没有可用对象时新建
+     * @param recycler 归还时重置对象状态
+     * @param maxShared 共享队列最多保留的对象数
+     * @param threadCacheSize 每个平台线程最多缓存的对象数，0 表示不使用线程缓存
+     */
+    public ObjectPool(String name, Supplier<T> factory, Consumer<T> recycler, int maxShared, int threadCacheSize) {
+        this.name = name;
+        this.factory = factory;
+        this.recycler = recycler;
+        this.maxShared = maxShared;
+        this.threadCacheSize = threadCacheSize;
+        this.local = ThreadLocal.withInitial(() -> new ArrayDeque<>(threadCacheSize));
+    }
+
+    public T acquire() {
+        acquired.increment();
+        T t = null;
+        boolean useLocal = useThreadCache();
+        if (useLocal) {
+            t = local.get().pollLast();
+        }
+        if (t == null) {
+            t = shared.poll();
+            if (t != null) {
+                sharedSize.decrementAndGet();
+            }
+        }
+        if (t != null) {
+            hits.increment();
+            return t;
+        }
+        return factory.get();
+    }
+
+    public void release(T t) {
+        if (t == null) {
+            return;
+        }
+        released.increment();
+        recycler.accept(t);
+        if (useThreadCache()) {
+            ArrayDeque<T> cache = local.get();
+            if (cache.size() < threadCacheSize) {
+                cache.addLast(t);
+                return;
+            }
+        }
+        if (sharedSize.incrementAndGet() <= maxShared) {
+            shared.offer(t);
+        } else {
+            sharedSize.decrementAndGet();
+            dropped.increment();
+        }
+    }
+
+    private boolean useThreadCache() {
+        if (threadCacheSize == 0) {
+            return false;
+        }
+        if (IS_VIRTUAL == null) {
+            return true;
+        }
+        try {
+            return !(boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /** Thread.isVirtual() 在 JDK 21 才有，旧版本上没有虚拟线程 */
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /** 从池中取到（而不是新建）的比例 */
+    public double getHitRate() {
+        long a = acquired.sum();
+        return a == 0 ? 0 : hits.sum() / (double) a;
+    }
+
+    /** 已借出尚未归还的对象数 */
+    public long getOutstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{acquired=%d, hitRate=%.1f%%, outstanding=%d, pooled=%d, dropped=%d}",
+                name, getAcquired(), getHitRate() * 100, getOutstanding(), sharedSize.get(), getDropped());
+    }
+}
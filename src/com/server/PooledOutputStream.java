@@ -0,0 +1,81 @@
+package com.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 使用池化缓冲区的 BufferedOutputStream：行为与 BufferedOutputStream 相同，
+ * 但缓冲区从 BufferPool 借出，close() 时归还（不关闭底层流）。
+ */
+class PooledOutputStream extends FilterOutputStream {
+    private final BufferPool pool;
+    private ByteBuffer buffer;      // 堆缓冲区，直接使用其 array()
+    private byte[] buf;
+    private int count = 0;
+
+    PooledOutputStream(OutputStream out, BufferPool pool) {
+        super(out);
+        this.pool = pool;
+        this.buffer = pool.acquire();
+        this.buf = buffer.array();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= buf.length) {
+            // 大块数据不经过缓冲区，直接写出
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > buf.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * 归还缓冲区；未写出的数据会被丢弃，需要时先 flush()
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+            buf = null;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.server;
+
+/**
+ * 各种服务器模式（阻塞/虚拟线程/NIO）共用的连接与流量指标，注册在 Metrics.get() 中。
+ */
+public final class ServerMetrics {
+    private static final Metrics M = Metrics.get();
+
+    public static final Metrics.Counter CONNECTIONS_OPEN =
+            M.upDownCounter("http_connections_open", "Currently open client connections");
+    public static final Metrics.Counter CONNECTIONS =
+            M.counter("http_connections_total", "Accepted client connections");
+    public static final Metrics.Counter REQUESTS =
+            M.counter("http_requests_total", "Requests handled");
+    public static final Metrics.Counter REUSED_REQUESTS =
+            M.counter("http_keepalive_reused_requests_total", "Requests served on an already used keep-alive connection");
+    public static final Metrics.Counter BYTES_IN =
+            M.counter("http_received_bytes_total", "Bytes read from client connections");
+    public static final Metrics.Counter BYTES_OUT =
+            M.counter("http_sent_bytes_total", "Bytes written to client connections");
+
+    // 按状态码类别统计的响应数：下标 1~5 对应 1xx~5xx
+    private static final Metrics.Counter[] RESPONSES = new Metrics.Counter[6];
+
+    static {
+        for (int i = 1; i <= 5; i++) {
+            RESPONSES[i] = M.counter("http_responses_total", "Responses by status class", Metrics.label("code", i + "xx"));
+        }
+        M.gauge("http_keepalive_reuse_ratio", "Share of requests served on a reused keep-alive connection", () -> {
+            long total = REQUESTS.get();
+            return total == 0 ? 0 : REUSED_REQUESTS.get() / (double) total;
+        });
+    }
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * 记录一个已处理的请求
+     * @param requestIndex 该请求是连接上的第几个（从 0 开始），大于 0 即长连接复用
+     */
+    public static void request(int status, int requestIndex) {
+        REQUESTS.increment();
+        if (requestIndex > 0) {
+            REUSED_REQUESTS.increment();
+        }
+        int cls = status / 100;
+        if (cls >= 1 && cls <= 5) {
+            RESPONSES[cls].increment();
+        }
+    }
+}
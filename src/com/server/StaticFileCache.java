@@ -0,0 +1,366 @@
+package com.server;
+
+import com.http.Compression;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * 静态文件缓存 - 以规范文件（getCanonicalFile）为键，缓存文件正文和响应需要的元数据。
+ * 请求路径到规范文件的对应关系另外保存，指向同一文件的不同路径（例如符号链接）共用一个条目，
+ * 内存中的正文和内存映射都只有一份。
+ *
+ * 按总字节数和条目数限制容量，超出时按 LRU 淘汰；每个条目另按 ENTRY_OVERHEAD 计入元数据的开销，
+ * 只缓存元数据的条目同样会被淘汰。条目每隔 revalidateMillis 才检查一次文件的
+ * 修改时间和长度，文件发生变化时作废并重新加载。热点文件命中后不需要任何文件系统调用。
+ * 超过 maxEntryBytes 的大文件只缓存元数据，正文仍然按需从文件发送；
+ * 不小于 mmapThreshold 的文件改用共享的只读内存映射，映射总量由 maxMappedBytes 单独限制，
+ * 条目被淘汰或作废时释放映射（正在发送的响应各自持有引用，发送完才真正解除映射）。
+ */
+public class StaticFileCache {
+    /** 每个条目的元数据（路径、File、类型、ETag 等）按固定字节数估算 */
+    static final long ENTRY_OVERHEAD = 512;
+
+    /** 缓存条目，创建后不再修改（lastValidated 除外） */
+    public static final class Entry {
+        final File file;
+        final byte[] body;              // 大文件为 null，发送时走文件通道或内存映射
+        final MappedFile mapped;        // 超过映射阈值的文件，否则为 null
+        final String contentType;
+        final String etag;
+        final String lastModifiedHttp;  // 预先格式化好的 Last-Modified
+        final long lastModified;
+        final long length;
+        volatile long lastValidated;
+        private byte[] gzipBody;        // 压缩变体，第一次需要时生成；压缩无收益时等于 body
+        private byte[] deflateBody;
+        private boolean inCache;        // 是否仍在缓存中，变体的字节数只在此时计入容量
+
+        Entry(File file, byte[] body, MappedFile mapped, String contentType, String etag,
+              String lastModifiedHttp, long lastModified, long length) {
+            this.file = file;
+            this.body = body;
+            this.mapped = mapped;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModifiedHttp = lastModifiedHttp;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.lastValidated = System.currentTimeMillis();
+        }
+
+        /** 计入堆内容量的字节数（元数据开销、正文加上已生成的压缩变体） */
+        long weight() {
+            if (body == null) {
+                return ENTRY_OVERHEAD;
+            }
+            long w = ENTRY_OVERHEAD + body.length;
+            if (gzipBody != null && gzipBody != body) w += gzipBody.length;
+            if (deflateBody != null && deflateBody != body) w += deflateBody.length;
+            return w;
+        }
+
+        /** 计入映射容量的字节数 */
+        long mappedWeight() {
+            return mapped == null ? 0 : mapped.length();
+        }
+
+        void release() {
+            if (mapped != null) {
+                mapped.release();
+            }
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long revalidateMillis;
+    private long mmapThreshold = 4L * 1024 * 1024;
+    private long maxMappedBytes = 1024L * 1024 * 1024;
+    private int maxEntries = 10_000;
+
+    // accessOrder=true 的 LinkedHashMap 即 LRU 顺序；临界区很短，用一把锁保护
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // 请求路径 -> 规范文件，数量同样不超过 maxEntries；条目被淘汰后残留的别名在查找时视为未命中
+    private final LinkedHashMap<String, File> aliases = new LinkedHashMap<String, File>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private final ReentrantLock lock = new ReentrantLock();
+    private long totalBytes = 0;
+    private long mappedBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public StaticFileCache() {
+        this(64L * 1024 * 1024, 1024 * 1024, 1000);
+    }
+
+    /**
+     * @param maxBytes 缓存正文的总字节数上限
+     * @param maxEntryBytes 单个文件正文可缓存的最大字节数，更大的文件只缓存元数据
+     * @param revalidateMillis 两次检查文件是否变化的最小间隔
+     */
+    public StaticFileCache(long maxBytes, long maxEntryBytes, long revalidateMillis) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.revalidateMillis = revalidateMillis;
+    }
+
+    /**
+     * 不小于该大小的文件使用内存映射发送，Long.MAX_VALUE 表示关闭映射
+     */
+    public StaticFileCache mmapThreshold(long bytes) {
+        this.mmapThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * 同时保持映射的文件总字节数上限
+     */
+    public StaticFileCache maxMappedBytes(long bytes) {
+        this.maxMappedBytes = bytes;
+        return this;
+    }
+
+    /**
+     * 缓存条目数上限
+     */
+    public StaticFileCache maxEntries(int n) {
+        this.maxEntries = n;
+        return this;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /** 该长度的文件是否应该映射（MappedByteBuffer 最大只能映射 2GB） */
+    public boolean shouldMap(long length) {
+        return length > maxEntryBytes && length >= mmapThreshold
+                && length <= Integer.MAX_VALUE && length <= maxMappedBytes;
+    }
+
+    /**
+     * 按请求路径查找缓存，文件已变化（或被删除）的条目会被作废
+     * @return 有效条目；未命中返回 null，调用方解析出规范文件后再调用 get(path, file)
+     */
+    public Entry get(String path) {
+        Entry e;
+        lock.lock();
+        try {
+            File file = aliases.get(path);
+            e = file == null ? null : entries.get(file);
+        } finally {
+            lock.unlock();
+        }
+        if (e == null || !validate(e)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e;
+    }
+
+    /**
+     * 记下请求路径对应的规范文件，并按文件查找缓存：该文件已经通过其他路径加载过时直接共用那个条目
+     * @return 有效条目；文件尚未缓存时返回 null，调用方加载后调用 put()
+     */
+    public Entry get(String path, File file) {
+        Entry e;
+        lock.lock();
+        try {
+            aliases.put(path, file);
+            e = entries.get(file);
+        } finally {
+            lock.unlock();
+        }
+        return e == null || !validate(e) ? null : e;
+    }
+
+    /** 距上次检查超过 revalidateMillis 时检查文件是否变化，已变化的条目被作废 */
+    private boolean validate(Entry e) {
+        long now = System.currentTimeMillis();
+        if (now - e.lastValidated >= revalidateMillis) {
+            if (e.file.lastModified() != e.lastModified || e.file.length() != e.length) {
+                remove(e);
+                invalidations.increment();
+                return false;
+            }
+            e.lastValidated = now;
+        }
+        return true;
+    }
+
+    /**
+     * 取条目正文的压缩变体，每个文件每种编码只压缩一次
+     * @return 压缩后的正文；压缩没有收益时返回 entry.body 本身
+     */
+    public byte[] encodedBody(Entry e, String encoding) {
+        lock.lock();
+        try {
+            byte[] v = Compression.GZIP.equals(encoding) ? e.gzipBody : e.deflateBody;
+            if (v != null) {
+                return v;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // 压缩在锁外进行，并发请求可能重复压缩一次，结果以先写入的为准
+        byte[] v = Compression.encode(e.body, encoding, Deflater.BEST_COMPRESSION);
+        if (v.length >= e.body.length) {
+            v = e.body;
+        }
+        lock.lock();
+        try {
+            byte[] existing = Compression.GZIP.equals(encoding) ? e.gzipBody : e.deflateBody;
+            if (existing != null) {
+                return existing;
+            }
+            long before = e.weight();
+            if (Compression.GZIP.equals(encoding)) {
+                e.gzipBody = v;
+            } else {
+                e.deflateBody = v;
+            }
+            if (e.inCache) {
+                totalBytes += e.weight() - before;
+                evictOverflow(e);
+            }
+            return v;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 放入新加载的条目；同一文件的同一版本已经由其他请求并发放入时，丢弃新条目（释放它的映射）
+     * @return 缓存中的条目，调用方应使用它发送响应
+     */
+    public Entry put(Entry e) {
+        lock.lock();
+        try {
+            Entry current = entries.get(e.file);
+            if (current != null && current.lastModified == e.lastModified && current.length == e.length) {
+                e.release();
+                return current;
+            }
+            Entry old = entries.put(e.file, e);
+            e.inCache = true;
+            if (old != null) {
+                totalBytes -= old.weight();
+                mappedBytes -= old.mappedWeight();
+                old.inCache = false;
+                old.release();
+            }
+            totalBytes += e.weight();
+            mappedBytes += e.mappedWeight();
+            evictOverflow(e);
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 超出容量时从最久未使用的条目开始淘汰，只淘汰对超限那一项容量有贡献的条目；调用方须持有锁
+     * @param keep 不淘汰的条目（刚放入或刚更新的）
+     */
+    private void evictOverflow(Entry keep) {
+        Iterator<Map.Entry<File, Entry>> it = entries.entrySet().iterator();
+        while ((totalBytes > maxBytes || mappedBytes > maxMappedBytes || entries.size() > maxEntries) && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest == keep) {
+                continue;
+            }
+            // 每个条目的 weight() 都大于 0，条目数或堆内容量超限时淘汰任何条目都有用
+            boolean helps = totalBytes > maxBytes || entries.size() > maxEntries
+                    || eldest.mappedWeight() > 0;
+            if (!helps) {
+                continue;
+            }
+            totalBytes -= eldest.weight();
+            mappedBytes -= eldest.mappedWeight();
+            eldest.inCache = false;
+            eldest.release();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private void remove(Entry expected) {
+        lock.lock();
+        try {
+            if (entries.get(expected.file) == expected) {
+                entries.remove(expected.file);
+                totalBytes -= expected.weight();
+                mappedBytes -= expected.mappedWeight();
+                expected.inCache = false;
+                expected.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTotalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMappedBytes() {
+        lock.lock();
+        try {
+            return mappedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StaticFileCache{entries=" + size() + ", bytes=" + getTotalBytes() + ", mapped=" + getMappedBytes()
+                + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + "}";
+    }
+}
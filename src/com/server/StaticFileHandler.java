@@ -1,69 +1,273 @@
 package com.server;
 
+import com.http.ByteRange;
+import com.http.Compression;
+import com.http.HttpDate;
 import com.http.HttpRequestParser;
 import com.http.HttpResponse;
+import com.http.ResponseBody;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.time.*;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class StaticFileHandler {
     private final File root;
+    private final StaticFileCache cache;
+    private final Compression compression;
 
     public StaticFileHandler(File root) {
+        this(root, new StaticFileCache(), new Compression());
+    }
+
+    public StaticFileHandler(File root, StaticFileCache cache, Compression compression) {
         this.root = root;
+        this.cache = cache;
+        this.compression = compression;
+    }
+
+    public StaticFileCache getCache() {
+        return cache;
     }
 
     public HttpResponse handle(HttpRequestParser.HttpRequest req) throws IOException {
         String rawPath = req.getPath();
-        String path = URLDecoder.decode(rawPath, "UTF-8");
-        File file = new File(root, path).getCanonicalFile();
-        if (!file.getPath().startsWith(root.getCanonicalPath())) {
+        String path = normalize(URLDecoder.decode(rawPath, "UTF-8"));
+        if (path == null) {
             return new HttpResponse().status(403).contentType("text/plain; charset=utf-8").body("Forbidden");
         }
-        if (!file.exists() || file.isDirectory()) {
-            return new HttpResponse().status(404).contentType("text/plain; charset=utf-8").body("Not Found");
+
+        // 命中缓存时不再做 getCanonicalFile/exists/读文件/探测类型等文件系统调用
+        StaticFileCache.Entry entry = cache.get(path);
+        if (entry == null) {
+            File file = new File(root, path).getCanonicalFile();
+            if (!file.getPath().startsWith(root.getCanonicalPath())) {
+                return new HttpResponse().status(403).contentType("text/plain; charset=utf-8").body("Forbidden");
+            }
+            if (!file.exists() || file.isDirectory()) {
+                return new HttpResponse().status(404).contentType("text/plain; charset=utf-8").body("Not Found");
+            }
+            // 其他路径已经加载过同一个文件时共用它的条目和内存映射，不再重复读取或映射
+            entry = cache.get(path, file);
+            if (entry == null) {
+                entry = cache.put(load(file));
+            }
         }
 
-        long lastModified = file.lastModified();
-        String etag = "\"" + lastModified + "-" + file.length() + "\"";
+        // 可压缩的缓存文件按 Accept-Encoding 选择变体，压缩结果缓存在条目里，每个文件只压缩一次
+        boolean varies = entry.body != null && compression.worthCompressing(entry.contentType, entry.length);
+        String encoding = null;
+        byte[] encodedBody = null;
+        if (varies && req.getHeader("Range") == null) {   // Range 只作用于未压缩的表示
+            String wanted = Compression.negotiate(req.getHeader("Accept-Encoding"));
+            if (wanted != null) {
+                byte[] v = cache.encodedBody(entry, wanted);
+                if (v != entry.body) {
+                    encoding = wanted;
+                    encodedBody = v;
+                }
+            }
+        }
+        String etag = Compression.variantEtag(entry.etag, encoding);
 
         String ifNoneMatch = req.getHeader("If-None-Match");
         if (ifNoneMatch != null && ifNoneMatch.equals(etag)) {
-            return new HttpResponse().notModified()
-                    .header("ETag", etag)
-                    .header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME
-                            .format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.of("GMT"))));
+            return notModified(entry, etag, varies);
         }
 
         String ifModifiedSince = req.getHeader("If-Modified-Since");
         if (ifModifiedSince != null) {
-            try {
-                ZonedDateTime zdt = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME);
-                long sinceMillis = zdt.toInstant().toEpochMilli();
-                if (sinceMillis >= lastModified) {
-                    return new HttpResponse().notModified()
-                            .header("ETag", etag)
-                            .header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME
-                                    .format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.of("GMT"))));
+            // HTTP 日期只精确到秒，按秒比较；解析失败则继续返回完整内容
+            long sinceMillis = HttpDate.parse(ifModifiedSince);
+            if (sinceMillis >= 0 && sinceMillis / 1000 >= entry.lastModified / 1000) {
+                return notModified(entry, etag, varies);
+            }
+        }
+
+        // Range 请求（If-Range 不匹配时按普通请求返回完整内容）
+        String rangeHeader = req.getHeader("Range");
+        if (rangeHeader != null && "GET".equalsIgnoreCase(req.getMethod())
+                && ifRangeMatches(req.getHeader("If-Range"), entry)) {
+            List<ByteRange> ranges = ByteRange.parse(rangeHeader, entry.length);
+            if (ranges != null) {
+                return partial(entry, ranges);
+            }
+        }
+
+        // 小文件直接用缓存里的字节；超过映射阈值的文件共享同一份内存映射；其余大文件在发送时从文件通道写到 socket
+        ResponseBody body;
+        if (encodedBody != null) {
+            body = ResponseBody.ofBytes(encodedBody);
+        } else if (entry.body != null) {
+            body = ResponseBody.ofBytes(entry.body);
+        } else if (entry.mapped != null && entry.mapped.retain()) {
+            body = entry.mapped.newBody();
+        } else {
+            body = ResponseBody.ofFile(entry.file);   // 映射刚好被淘汰时退回文件通道
+        }
+        HttpResponse resp = new HttpResponse()
+                .status(200)
+                .contentType(entry.contentType)
+                .header("ETag", etag)
+                .header("Last-Modified", entry.lastModifiedHttp)
+                .header("Accept-Ranges", "bytes")
+                .body(body);
+        if (encoding != null) {
+            resp.header("Content-Encoding", encoding);
+        }
+        if (varies) {
+            resp.header("Vary", "Accept-Encoding");
+        }
+        return resp;
+    }
+
+    /**
+     * 生成 206（单区间或 multipart/byteranges）或 416 响应，区间内容直接从缓存字节、内存映射或文件发送
+     */
+    private HttpResponse partial(StaticFileCache.Entry entry, List<ByteRange> ranges) throws IOException {
+        if (ranges.isEmpty()) {
+            return new HttpResponse()
+                    .status(416)
+                    .contentType("text/plain; charset=utf-8")
+                    .header("Content-Range", "bytes */" + entry.length)
+                    .header("Accept-Ranges", "bytes")
+                    .body("Range Not Satisfiable");
+        }
+
+        HttpResponse resp = new HttpResponse()
+                .status(206)
+                .header("ETag", entry.etag)
+                .header("Last-Modified", entry.lastModifiedHttp)
+                .header("Accept-Ranges", "bytes");
+        if (ranges.size() == 1) {
+            ByteRange r = ranges.get(0);
+            return resp.contentType(entry.contentType)
+                    .header("Content-Range", r.contentRange(entry.length))
+                    .body(rangeBody(entry, r.getStart(), r.length()));
+        }
+
+        // 多个区间：每个部分前面是分隔行和该部分的头，最后是结束分隔行
+        String boundary = "RANGE_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        List<ResponseBody> parts = new ArrayList<>(ranges.size() * 2 + 1);
+        for (ByteRange r : ranges) {
+            String partHeader = "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + entry.contentType + "\r\n"
+                    + "Content-Range: " + r.contentRange(entry.length) + "\r\n\r\n";
+            parts.add(ResponseBody.ofBytes(partHeader.getBytes(StandardCharsets.US_ASCII)));
+            parts.add(rangeBody(entry, r.getStart(), r.length()));
+        }
+        parts.add(ResponseBody.ofBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII)));
+        return resp.contentType("multipart/byteranges; boundary=" + boundary)
+                .body(ResponseBody.concat(parts));
+    }
+
+    private static ResponseBody rangeBody(StaticFileCache.Entry entry, long offset, long length) throws IOException {
+        if (entry.body != null) {
+            return ResponseBody.ofBuffer(ByteBuffer.wrap(entry.body, (int) offset, (int) length), null);
+        }
+        if (entry.mapped != null && entry.mapped.retain()) {
+            return entry.mapped.newBody(offset, length);
+        }
+        return ResponseBody.ofFile(entry.file, offset, length);
+    }
+
+    /**
+     * If-Range 可以是 ETag（强比较）或 HTTP 日期；没有 If-Range 时视为匹配
+     */
+    private static boolean ifRangeMatches(String ifRange, StaticFileCache.Entry entry) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(entry.etag);
+        }
+        long millis = HttpDate.parse(ifRange);
+        return millis >= 0 && millis / 1000 == entry.lastModified / 1000;
+    }
+
+    private static HttpResponse notModified(StaticFileCache.Entry entry, String etag, boolean varies) {
+        HttpResponse resp = new HttpResponse().notModified()
+                .header("ETag", etag)
+                .header("Last-Modified", entry.lastModifiedHttp);
+        if (varies) {
+            resp.header("Vary", "Accept-Encoding");
+        }
+        return resp;
+    }
+
+    /**
+     * 读取文件元数据（以及不超过缓存上限的文件内容），生成缓存条目
+     */
+    /**
+     * 按路径段规范化请求路径：合并重复的 "/"，去掉 "." 段和末尾的 "/"，".." 回到上一级，
+     * "/./a"、"//a"、"/x/../a" 这些别名因此共用同一个缓存条目
+     * @return 以 "/" 开头的路径；".." 越过根目录时返回 null
+     */
+    static String normalize(String path) {
+        if (isNormalized(path)) {
+            return path;
+        }
+        ArrayDeque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (segments.pollLast() == null) {
+                    return null;
                 }
-            } catch (Exception ignore) {
-                // 解析失败则继续返回完整内容
+                continue;
             }
+            segments.addLast(segment);
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    /** 常见的请求路径已经是规范形式，逐字符检查一遍即可，不必拆分 */
+    private static boolean isNormalized(String path) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            return false;
         }
+        for (int i = 1; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (path.charAt(i - 1) == '/' && (c == '/' || c == '.')) {
+                return false;
+            }
+        }
+        return path.length() == 1 || path.charAt(path.length() - 1) != '/';
+    }
+
+    private StaticFileCache.Entry load(File file) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        String etag = "\"" + lastModified + "-" + length + "\"";
+        String lastModifiedHttp = HttpDate.format(lastModified);
 
-        byte[] data = Files.readAllBytes(file.toPath());
         String contentType = Files.probeContentType(file.toPath());
         if (contentType == null) contentType = "application/octet-stream";
 
-        return new HttpResponse()
-                .status(200)
-                .contentType(contentType)
-                .header("ETag", etag)
-                .header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME
-                        .format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.of("GMT"))))
-                .bodyBytes(data);
+        byte[] body = null;
+        MappedFile mapped = null;
+        if (cache.shouldMap(length)) {
+            mapped = MappedFile.map(file);
+            if (mapped.length() != length) {
+                length = mapped.length();
+                etag = "\"" + lastModified + "-" + length + "\"";
+            }
+        } else if (length <= cache.getMaxEntryBytes()) {
+            body = Files.readAllBytes(file.toPath());
+            if (body.length != length) {
+                // 读取期间文件被修改，按实际内容重新计算 ETag
+                length = body.length;
+                etag = "\"" + lastModified + "-" + length + "\"";
+            }
+        }
+        return new StaticFileCache.Entry(file, body, mapped, contentType, etag, lastModifiedHttp, lastModified, length);
     }
 }
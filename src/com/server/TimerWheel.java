@@ -0,0 +1,149 @@
+package com.server;
+
+/**
+ * 哈希时间轮 - 管理大量空闲连接的超时。
+ *
+ * 时间按固定的 tick 划分，轮上有 2^n 个槽，到期时间落在第 k 个 tick 的定时器挂在 k & mask 槽的双向链表上。
+ * 添加、取消、重新计时都是 O(1) 的链表操作，不像优先队列那样每次调整都要 O(log n)；
+ * 每次推进只检查经过的槽，超过一圈的定时器靠比较到期 tick 留在槽里等下一圈。
+ * 超时只精确到 tick，对空闲连接的回收来说足够了。
+ *
+ * 不是线程安全的：只能由拥有它的线程（事件循环或空闲连接线程）调用。
+ */
+final class TimerWheel {
+
+    /** 一个可重复使用的定时器，直接嵌入在连接对象里，重新计时不产生新对象 */
+    static final class Timeout {
+        private final Runnable task;
+        private long deadlineTick;
+        private int slot = -1;      // -1 表示未挂在轮上
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout[] slots;
+    private final int mask;
+    private long currentTick;       // 已经处理过的最后一个 tick
+    private int size = 0;
+
+    /**
+     * @param tickMillis 时间精度
+     * @param slotCount 槽的数量，向上取整为 2 的幂；tick * 槽数 最好大于常用的超时时间，这样大多数定时器不需要绕圈
+     */
+    TimerWheel(long tickMillis, int slotCount) {
+        this.tickMillis = Math.max(1, tickMillis);
+        int n = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.slots = new Timeout[n];
+        this.mask = n - 1;
+        this.currentTick = System.currentTimeMillis() / this.tickMillis;
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /** 挂在轮上的定时器数量 */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 在 delayMillis 之后触发；已经计时的定时器会先取消再重新计时
+     */
+    void schedule(Timeout t, long delayMillis) {
+        scheduleAt(t, System.currentTimeMillis() + Math.max(0, delayMillis));
+    }
+
+    /** 在指定的绝对时间（毫秒）触发 */
+    void scheduleAt(Timeout t, long deadlineMillis) {
+        // 向上取整到 tick，保证不会比要求的时间早触发；至少落在下一个 tick
+        long tick = Math.max(currentTick + 1, (deadlineMillis + tickMillis - 1) / tickMillis);
+        if (t.isScheduled()) {
+            if (t.deadlineTick == tick) {
+                return;
+            }
+            cancel(t);
+        }
+        t.deadlineTick = tick;
+        int slot = (int) (tick & mask);
+        t.slot = slot;
+        t.prev = null;
+        t.next = slots[slot];
+        if (t.next != null) {
+            t.next.prev = t;
+        }
+        slots[slot] = t;
+        size++;
+    }
+
+    void cancel(Timeout t) {
+        if (!t.isScheduled()) {
+            return;
+        }
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            slots[t.slot] = t.next;
+        }
+        if (t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = null;
+        t.next = null;
+        t.slot = -1;
+        size--;
+    }
+
+    /**
+     * 推进到当前时间，依次执行已到期定时器的任务（任务里可以重新计时或取消其他定时器）
+     * @return 触发的定时器数量
+     */
+    int advance() {
+        long nowTick = System.currentTimeMillis() / tickMillis;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return 0;
+        }
+        // 长时间没有推进时最多扫一圈，之后的 tick 都落在已经扫过的槽上
+        long from = Math.max(currentTick + 1, nowTick - mask);
+        int fired = 0;
+        for (long tick = from; tick <= nowTick; tick++) {
+            Timeout t = slots[(int) (tick & mask)];
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.deadlineTick <= nowTick) {
+                    cancel(t);
+                    fired++;
+                    t.task.run();
+                    // 任务可能取消了 next（例如关闭了另一个连接），这时 next 已不在本槽
+                    if (next != null && next.slot != (int) (tick & mask)) {
+                        next = slots[(int) (tick & mask)];
+                    }
+                }
+                t = next;
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return fired;
+    }
+
+    /**
+     * 距离下一个 tick 的毫秒数，用作 select 的超时；轮上没有定时器时返回 0（无限等待）
+     */
+    long nextTickDelay() {
+        if (size == 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        return Math.max(1, tickMillis - now % tickMillis);
+    }
+}